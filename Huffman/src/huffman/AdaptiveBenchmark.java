@@ -0,0 +1,47 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class compares single-pass adaptive huffman coding against the static
+ * two-pass byte mode (encodeBytes and decode) on compression ratio and
+ * throughput. It runs over input1.txt through input6.txt and any other files
+ * given as arguments.
+ */
+public class AdaptiveBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %10s %14s %14s %12s %12s %12s %12s\n", "input", "bytes", "static size",
+                "adaptive size", "static enc", "adapt enc", "static dec", "adapt dec");
+
+        for (String input : Benchmarks.inputs(args))
+            run(input);
+        System.err.println("Throughput is in MB/s of original input, best of " + ROUNDS + " rounds");
+    }
+
+    private static void run(String input) throws IOException {
+        File encoded = File.createTempFile("huffman-bench", ".enc");
+        File decoded = File.createTempFile("huffman-bench", ".dec");
+        encoded.deleteOnExit();
+        decoded.deleteOnExit();
+        long bytes = new File(input).length();
+        String enc = encoded.getPath(), dec = decoded.getPath();
+
+        long staticEncode = Benchmarks.best(ROUNDS, () -> HuffmanCoding.encodeBytes(input, enc));
+        long staticSize = encoded.length();
+        long staticDecode = Benchmarks.best(ROUNDS, () -> HuffmanCoding.decode(enc, dec));
+
+        long adaptiveEncode = Benchmarks.best(ROUNDS, () -> HuffmanCoding.encodeAdaptive(input, enc));
+        long adaptiveSize = encoded.length();
+        long adaptiveDecode = Benchmarks.best(ROUNDS, () -> HuffmanCoding.decodeAdaptive(enc, dec));
+        encoded.delete();
+        decoded.delete();
+
+        System.err.printf("%-20s %10d %14d %14d %12.1f %12.1f %12.1f %12.1f\n", new File(input).getName(), bytes,
+                staticSize, adaptiveSize, Benchmarks.rate(bytes, staticEncode),
+                Benchmarks.rate(bytes, adaptiveEncode), Benchmarks.rate(bytes, staticDecode),
+                Benchmarks.rate(bytes, adaptiveDecode));
+    }
+}
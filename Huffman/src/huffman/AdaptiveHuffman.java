@@ -0,0 +1,229 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class encodes and decodes byte streams in a single pass with adaptive
+ * huffman coding (the FGK algorithm). Encoder and decoder start with the same
+ * empty tree and update it the same way after every byte, so no frequency
+ * table or header has to be sent and the input never has to be read twice.
+ *
+ * The tree starts out as a single NYT ("not yet transmitted") leaf. The first
+ * time a byte appears, the code for the NYT leaf is written followed by the
+ * byte itself in 9 bits, and the NYT leaf is split into a new NYT leaf and a
+ * leaf for that byte. The end of the stream is written the same way as the
+ * 9-bit symbol END.
+ *
+ * Nodes live in primitive arrays indexed by their position in the FGK
+ * ordering, so the root is always at TOP and weights never decrease as the
+ * position goes up. Updating swaps whole subtrees between positions to keep
+ * it that way.
+ */
+public class AdaptiveHuffman {
+    public static final int END = 256;
+    private static final int SYMBOLS = 257;
+    // Every symbol adds two nodes to the single starting NYT leaf
+    private static final int TOP = 2 * SYMBOLS;
+
+    private final long[] weight = new long[TOP + 1];
+    private final int[] parent = new int[TOP + 1];
+    private final int[] left = new int[TOP + 1];
+    private final int[] right = new int[TOP + 1];
+    private final int[] symbol = new int[TOP + 1];
+    private final int[] leafOf = new int[SYMBOLS];
+    private final int[] path = new int[TOP + 1];
+    private int nyt = TOP;
+
+    private AdaptiveHuffman() {
+        parent[TOP] = -1;
+        left[TOP] = right[TOP] = -1;
+        symbol[TOP] = -1;
+        Arrays.fill(leafOf, -1);
+    }
+
+    /**
+     * Encodes everything left in a stream
+     *
+     * @param in  The stream to encode, read until it ends
+     * @param out The stream to write the encoding to. It is flushed but not
+     *            closed.
+     */
+    public static void encode(InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffman model = new AdaptiveHuffman();
+        BitOutputStream bits = new BitOutputStream(out);
+        InputStream buffered = new BufferedInputStream(in, 1 << 16);
+        int b;
+        while ((b = buffered.read()) != -1)
+            model.encodeSymbol(bits, b);
+        model.encodeSymbol(bits, END);
+        bits.flush();
+    }
+
+    /**
+     * Decodes a stream written by encode. Bytes are read one at a time as
+     * the bits are needed, so a pipe or socket carrying more after the END
+     * symbol is left at the next byte. Each symbol is written straight to out
+     * as soon as its last bit arrives, so a reader at the other end of a pipe
+     * sees it without waiting for the rest. Files are best passed in and out
+     * buffered.
+     *
+     * @param in  The stream to decode, read up to the byte holding its END
+     *            symbol and no further
+     * @param out The stream to write the decoded bytes to. It is flushed but
+     *            not closed.
+     */
+    public static void decode(InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffman model = new AdaptiveHuffman();
+        ByteBits bits = new ByteBits(in);
+        int s;
+        while ((s = model.decodeSymbol(bits)) != END)
+            out.write(s);
+        out.flush();
+    }
+
+    private void encodeSymbol(BitOutputStream out, int s) throws IOException {
+        int node = leafOf[s] >= 0 ? leafOf[s] : nyt;
+
+        // Collect the path from the leaf up to the root, then write it from
+        // the root down
+        int depth = 0;
+        while (parent[node] >= 0) {
+            path[depth++] = right[parent[node]] == node ? 1 : 0;
+            node = parent[node];
+        }
+        while (depth > 0)
+            out.writeBit(path[--depth]);
+
+        if (leafOf[s] < 0)
+            out.writeBits(s, 9);
+        update(s);
+    }
+
+    private int decodeSymbol(ByteBits in) throws IOException {
+        int node = TOP;
+        while (left[node] >= 0) {
+            int bit = in.readBit();
+            if (bit < 0)
+                throw new IOException("Adaptive huffman stream ended without END");
+            node = bit == 0 ? left[node] : right[node];
+        }
+
+        int s = symbol[node];
+        if (node == nyt) {
+            s = 0;
+            for (int i = 0; i < 9; i++) {
+                int bit = in.readBit();
+                if (bit < 0)
+                    throw new IOException("Adaptive huffman stream ended without END");
+                s = s << 1 | bit;
+            }
+        }
+        if (s > END)
+            throw new IOException("Corrupt adaptive huffman stream");
+        update(s);
+        return s;
+    }
+
+    /**
+     * Counts one more occurrence of a symbol, adding a leaf for it first if
+     * it is new
+     */
+    private void update(int s) {
+        int node = leafOf[s];
+        if (node < 0) {
+            // The old NYT leaf becomes the parent of a new NYT leaf and the new
+            // symbol's leaf, which take the two lowest positions
+            int leaf = nyt - 1, newNyt = nyt - 2;
+            left[nyt] = newNyt;
+            right[nyt] = leaf;
+            symbol[nyt] = -1;
+
+            parent[leaf] = nyt;
+            left[leaf] = right[leaf] = -1;
+            symbol[leaf] = s;
+            leafOf[s] = leaf;
+
+            parent[newNyt] = nyt;
+            left[newNyt] = right[newNyt] = -1;
+            symbol[newNyt] = -1;
+
+            nyt = newNyt;
+            node = leaf;
+        }
+
+        while (node >= 0) {
+            // Move the node to the highest position with the same weight,
+            // unless that position belongs to its own parent
+            int leader = node;
+            while (leader < TOP && weight[leader + 1] == weight[node])
+                leader++;
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+            node = parent[node];
+        }
+    }
+
+    // Exchanges the subtrees at two positions with equal weight
+    private void swap(int a, int b) {
+        int t = symbol[a];
+        symbol[a] = symbol[b];
+        symbol[b] = t;
+        t = left[a];
+        left[a] = left[b];
+        left[b] = t;
+        t = right[a];
+        right[a] = right[b];
+        right[b] = t;
+        if (nyt == a)
+            nyt = b;
+        else if (nyt == b)
+            nyt = a;
+        relink(a);
+        relink(b);
+    }
+
+    // Points a position's children, or its symbol, back at the position
+    private void relink(int node) {
+        if (left[node] >= 0) {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        } else if (symbol[node] >= 0) {
+            leafOf[symbol[node]] = node;
+        }
+    }
+
+    /**
+     * Reads bits most significant first without reading ahead. Unlike
+     * BitInputStream, which fills a 64-bit register, it never takes a byte
+     * from the stream before one of its bits is needed.
+     */
+    private static class ByteBits {
+        private final InputStream in;
+        private int current;
+        private int left;
+
+        ByteBits(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return 0 or 1, or -1 if the stream has no more bits
+         */
+        int readBit() throws IOException {
+            if (left == 0) {
+                current = in.read();
+                if (current < 0)
+                    return -1;
+                left = 8;
+            }
+            return current >>> --left & 1;
+        }
+    }
+}
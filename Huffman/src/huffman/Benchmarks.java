@@ -0,0 +1,132 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class holds what the benchmarks share: finding the sample inputs,
+ * timing a body by its best run once it is warmed up, and turning times into
+ * throughput. Benchmarks print their results to System.err.
+ */
+final class Benchmarks {
+    // Long enough for the JIT to have compiled what a body runs
+    static final long WARMUP_NANOS = 200_000_000L;
+
+    /**
+     * This interface is the code a benchmark times
+     */
+    interface Body {
+        void run() throws IOException;
+    }
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Lists input1.txt through input6.txt, skipping any which are not in the
+     * working directory, followed by the files given as arguments
+     *
+     * @param extra Other files to run over
+     * @return The files which a benchmark should run over
+     */
+    static ArrayList<String> inputs(String... extra) {
+        ArrayList<String> inputs = new ArrayList<String>();
+        for (int i = 1; i <= 6; i++) {
+            String input = "input" + i + ".txt";
+            if (new File(input).exists())
+                inputs.add(input);
+            else
+                System.err.println("Skipping " + input + ", run from the Huffman folder to include it");
+        }
+        for (String file : extra)
+            inputs.add(file);
+        return inputs;
+    }
+
+    /**
+     * Runs a body over and over until WARMUP_NANOS have passed, and at least
+     * once
+     *
+     * @param body The code to warm up
+     */
+    static void warmUp(Body body) throws IOException {
+        long start = System.nanoTime();
+        do {
+            body.run();
+        } while (System.nanoTime() - start < WARMUP_NANOS);
+    }
+
+    /**
+     * Times a body once it is warmed up, keeping the best of a few rounds so
+     * that noise does not count
+     *
+     * @param rounds The number of timed runs
+     * @param body   The code to time
+     * @return The fastest run in nanoseconds
+     */
+    static long best(int rounds, Body body) throws IOException {
+        warmUp(body);
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Adds up Zipf weights, where the item at rank i is 1 / i as common as the
+     * first
+     *
+     * @param n The number of items
+     * @return The running totals of the weights, the last being their sum
+     */
+    static double[] zipfCumulative(int n) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Makes a 4096 entry table of the 95 printable ASCII characters, so that
+     * characters can be drawn from a distribution by picking entries
+     * uniformly instead of searching the weights
+     *
+     * @param zipf true for Zipf weights, with ' ' the most common, or false
+     *             for equal weights
+     * @return The table
+     */
+    static byte[] charSampler(boolean zipf) {
+        int symbols = 95;
+        double[] cumulative = new double[symbols];
+        if (zipf) {
+            cumulative = zipfCumulative(symbols);
+        } else {
+            for (int i = 0; i < symbols; i++)
+                cumulative[i] = i + 1;
+        }
+        double total = cumulative[symbols - 1];
+        byte[] sampler = new byte[4096];
+        for (int i = 0, s = 0; i < sampler.length; i++) {
+            while (cumulative[s] / total < (i + 0.5) / sampler.length)
+                s++;
+            sampler[i] = (byte) (' ' + s);
+        }
+        return sampler;
+    }
+
+    /**
+     * @param bytes The number of bytes gone through
+     * @param nanos The time it took
+     * @return Throughput in megabytes per second
+     */
+    static double rate(long bytes, double nanos) {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+}
@@ -0,0 +1,140 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class reads individual bits from an input stream. Whole bytes are
+ * loaded into a 64-bit register, most significant bit first, so that up to 56
+ * bits can be looked at or consumed at once
+ */
+public class BitInputStream {
+    private final InputStream in;
+    private final byte[] bytes;
+    private int bytesIndex, bytesLimit;
+    private boolean endOfStream;
+
+    // Valid bits are kept left-aligned in the register
+    private long buffer;
+    private int count;
+    private long bitsRead;
+
+    public BitInputStream(InputStream in) {
+        this(in, 1 << 16);
+    }
+
+    /**
+     * @param in         The stream to read from
+     * @param bufferSize How many bytes to read from the stream at once. Small
+     *                   buffers suit readers which only need a few bits.
+     */
+    public BitInputStream(InputStream in, int bufferSize) {
+        this.in = in;
+        this.bytes = new byte[bufferSize];
+    }
+
+    /**
+     * @return true if at least one more bit can be read
+     */
+    public boolean hasMoreBits() throws IOException {
+        if (count == 0)
+            refill();
+        return count > 0;
+    }
+
+    /**
+     * Reads a single bit
+     *
+     * @return 0 or 1, or -1 if the stream has no more bits
+     */
+    public int readBit() throws IOException {
+        if (!hasMoreBits())
+            return -1;
+        int bit = (int) (buffer >>> 63);
+        skipBits(1);
+        return bit;
+    }
+
+    /**
+     * Returns the next n bits without consuming them. If the stream ends before
+     * n bits are available, the missing low bits are returned as zeroes.
+     *
+     * @param n The number of bits to look at, between 1 and 56
+     * @return The next n bits, right-aligned
+     */
+    public long peekBits(int n) throws IOException {
+        if (count < n)
+            refill();
+        return buffer >>> (64 - n);
+    }
+
+    /**
+     * Consumes n bits which have already been looked at with peekBits
+     *
+     * @param n The number of bits to consume, at most the number available
+     */
+    public void skipBits(int n) {
+        buffer <<= n;
+        count -= n;
+        bitsRead += n;
+    }
+
+    /**
+     * Reads the next n bits
+     *
+     * @param n The number of bits to read, between 1 and 56
+     * @return The next n bits, right-aligned
+     */
+    public long readBits(int n) throws IOException {
+        long bits = peekBits(n);
+        skipBits(Math.min(n, count));
+        return bits;
+    }
+
+    /**
+     * @return The number of bits which can be read without touching the
+     *         underlying stream again
+     */
+    public int bitsBuffered() throws IOException {
+        refill();
+        return count;
+    }
+
+    /**
+     * @return true if skipBits has consumed bits past the end of the stream,
+     *         the zeroes peekBits made up for a code cut short
+     */
+    public boolean isOverrun() {
+        return count < 0;
+    }
+
+    /**
+     * @return The number of bits consumed so far
+     */
+    public long getBitCount() {
+        return bitsRead;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // Tops the register up with whole bytes until fewer than 8 bits are free
+    private void refill() throws IOException {
+        while (count <= 56) {
+            if (bytesIndex == bytesLimit) {
+                if (endOfStream)
+                    return;
+                bytesLimit = in.read(bytes, 0, bytes.length);
+                bytesIndex = 0;
+                if (bytesLimit <= 0) {
+                    bytesLimit = 0;
+                    endOfStream = true;
+                    return;
+                }
+            }
+            buffer |= (bytes[bytesIndex++] & 0xFFL) << (56 - count);
+            count += 8;
+        }
+    }
+}
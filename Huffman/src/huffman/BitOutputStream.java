@@ -0,0 +1,110 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class writes individual bits to an output stream. Bits are collected
+ * in a 64-bit register and only whole bytes are ever handed to the underlying
+ * stream, most significant bit first
+ */
+public class BitOutputStream {
+    private final OutputStream out;
+    private final byte[] bytes = new byte[1 << 16];
+    private int bytesIndex;
+
+    // Pending bits are kept right-aligned in the register
+    private long buffer;
+    private int count;
+    private long bitsWritten;
+
+    public BitOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a single bit
+     *
+     * @param bit 0 or 1
+     */
+    public void writeBit(int bit) throws IOException {
+        writeBits(bit & 1, 1);
+    }
+
+    /**
+     * Writes the lowest n bits of the given value, most significant bit first
+     *
+     * @param bits The value holding the bits to write
+     * @param n    The number of bits to write, between 0 and 64
+     */
+    public void writeBits(long bits, int n) throws IOException {
+        // Split wide writes so that the register can never overflow
+        if (n > 32) {
+            writeBits(bits >>> 32, n - 32);
+            n = 32;
+        }
+        if (n == 0)
+            return;
+
+        if (count + n > 64)
+            drain();
+        buffer = (buffer << n) | (bits & (-1L >>> (64 - n)));
+        count += n;
+        bitsWritten += n;
+    }
+
+    /**
+     * @return The number of bits written so far, not counting final padding
+     */
+    public long getBitCount() {
+        return bitsWritten;
+    }
+
+    /**
+     * Pads the last partial byte with zeroes and pushes every buffered byte to
+     * the underlying stream
+     */
+    public void flush() throws IOException {
+        drain();
+        if (count > 0) {
+            putByte((int) (buffer << (8 - count)));
+            buffer = 0;
+            count = 0;
+        }
+        out.write(bytes, 0, bytesIndex);
+        bytesIndex = 0;
+        out.flush();
+    }
+
+    /**
+     * Flushes and closes the underlying stream
+     */
+    public void close() throws IOException {
+        flush();
+        out.close();
+    }
+
+    // Moves every complete byte from the register into the byte buffer
+    private void drain() throws IOException {
+        if (bytesIndex > bytes.length - 8) {
+            out.write(bytes, 0, bytesIndex);
+            bytesIndex = 0;
+        }
+        // There is room for all 8 bytes the register could hold
+        byte[] bytes = this.bytes;
+        int index = bytesIndex;
+        while (count >= 8) {
+            count -= 8;
+            bytes[index++] = (byte) (buffer >>> count);
+        }
+        bytesIndex = index;
+    }
+
+    private void putByte(int b) throws IOException {
+        if (bytesIndex == bytes.length) {
+            out.write(bytes, 0, bytesIndex);
+            bytesIndex = 0;
+        }
+        bytes[bytesIndex++] = (byte) b;
+    }
+}
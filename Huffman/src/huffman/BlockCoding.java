@@ -0,0 +1,514 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class encodes and decodes files as independent fixed-size blocks, so
+ * that both directions can use every core. All blocks share one canonical
+ * codebook built from the whole file. The container looks like this:
+ *
+ * <pre>
+ * header   32-bit magic "HUFB", 8-bit version, varint block size,
+ *          varint sync interval, varint total length, code lengths as in
+ *          HuffmanHeader, padded with zeroes to a whole byte
+ * blocks   each block's codes, padded with zeroes to a whole byte
+ * index    32-bit block count, then for each block its 64-bit file offset
+ *          followed by its sync points
+ * trailer  64-bit file offset of the index
+ * </pre>
+ *
+ * Every block except the last holds exactly block size input bytes, so the
+ * number of bytes to decode from each block is known from the header.
+ *
+ * A sync point is recorded every sync interval bytes of input inside a
+ * block, as the 32-bit offset in bits from the start of the block where that
+ * byte's code begins. The start of the block itself is not stored. Sync
+ * points let SeekableDecoder start decoding close to any offset. Version 1
+ * containers have no sync interval or sync points.
+ */
+public class BlockCoding {
+    public static final int MAGIC = 0x48554642;
+    public static final int VERSION = 2;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    public static final int DEFAULT_SYNC_INTERVAL = 1 << 12;
+
+    // Keeps every bit offset inside a block within 32 bits
+    public static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    /**
+     * Encodes a file with the default block size and one thread per core
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encode(String inputFile, String encodedFile) throws IOException {
+        encode(inputFile, encodedFile, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Encodes a file block by block on a pool of threads. Finished blocks are
+     * written in order, and only a couple of blocks per thread are held in
+     * memory at once.
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     * @param blockSize   The number of input bytes in each block
+     * @param threads     The number of encoding threads
+     */
+    public static void encode(String inputFile, String encodedFile, int blockSize, int threads) throws IOException {
+        encode(inputFile, encodedFile, blockSize, DEFAULT_SYNC_INTERVAL, threads);
+    }
+
+    /**
+     * Encodes a file block by block on a pool of threads, recording a sync
+     * point every syncInterval bytes
+     *
+     * @param inputFile    The file which is to be encoded
+     * @param encodedFile  The file name into which the input is to be encoded
+     * @param blockSize    The number of input bytes in each block
+     * @param syncInterval The number of input bytes between sync points
+     * @param threads      The number of encoding threads
+     */
+    public static void encode(String inputFile, String encodedFile, int blockSize, int syncInterval, int threads)
+            throws IOException {
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE);
+        if (syncInterval <= 0)
+            throw new IllegalArgumentException("Sync interval must be positive");
+
+        long[] byteOcc = ParallelHistogram.countBytes(inputFile);
+        long length = 0;
+        for (long occ : byteOcc)
+            length += occ;
+        Codebook codebook = HuffmanCoding.makeCodebook(byteOcc);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        InputStream in = new FileInputStream(inputFile);
+        CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(encodedFile), 1 << 16));
+        try {
+            out.write(headerBytes(blockSize, syncInterval, length, codebook));
+
+            ArrayList<Long> offsets = new ArrayList<Long>();
+            ArrayList<int[]> syncs = new ArrayList<int[]>();
+            ArrayDeque<Future<EncodedBlock>> pending = new ArrayDeque<Future<EncodedBlock>>();
+            while (true) {
+                byte[] block = in.readNBytes(blockSize);
+                if (block.length == 0)
+                    break;
+                pending.add(pool.submit(() -> encodeBlock(codebook, block, block.length, syncInterval)));
+
+                // Keep a bounded number of blocks in flight
+                while (pending.size() >= threads * 2) {
+                    EncodedBlock encoded = pending.remove().get();
+                    offsets.add(out.getCount());
+                    syncs.add(encoded.syncBits);
+                    out.write(encoded.bytes);
+                }
+            }
+            while (!pending.isEmpty()) {
+                EncodedBlock encoded = pending.remove().get();
+                offsets.add(out.getCount());
+                syncs.add(encoded.syncBits);
+                out.write(encoded.bytes);
+            }
+            writeIndex(out, offsets, syncs);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Block encoding failed", e);
+        } finally {
+            pool.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Decodes a block container on a pool of threads. Each block is decoded
+     * straight into its place in the output file.
+     *
+     * @param encodedFile The block container to decode
+     * @param decodedFile The file which you want to decode into
+     * @param threads     The number of decoding threads
+     */
+    public static void decode(String encodedFile, String decodedFile, int threads) throws IOException {
+        Container container = Container.open(encodedFile);
+        FileChannel output = FileChannel.open(Paths.get(decodedFile), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            ArrayList<Future<Object>> done = new ArrayList<Future<Object>>();
+            for (int b = 0; b < container.getBlockCount(); b++) {
+                int block = b;
+                done.add(pool.submit(() -> {
+                    byte[] decoded = container.decodeBlock(block);
+                    ByteBuffer buffer = ByteBuffer.wrap(decoded);
+                    long position = (long) block * container.getBlockSize();
+                    while (buffer.hasRemaining())
+                        position += output.write(buffer, position);
+                    return null;
+                }));
+            }
+            for (Future<Object> future : done)
+                future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Block decoding failed", e);
+        } finally {
+            pool.shutdownNow();
+            container.close();
+            output.close();
+        }
+    }
+
+    /**
+     * Decodes a block container with one thread per core
+     *
+     * @param encodedFile The block container to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        decode(encodedFile, decodedFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * The encoded bytes of one block, and the bit offset of each of its sync
+     * points after the first
+     */
+    private static class EncodedBlock {
+        final byte[] bytes;
+        final int[] syncBits;
+
+        EncodedBlock(byte[] bytes, int[] syncBits) {
+            this.bytes = bytes;
+            this.syncBits = syncBits;
+        }
+    }
+
+    /**
+     * Encodes bytes [0, count) of a block into a whole number of bytes
+     */
+    private static EncodedBlock encodeBlock(Codebook codebook, byte[] block, int count, int syncInterval)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(count / 2 + 16);
+        BitOutputStream bits = new BitOutputStream(bytes);
+        int[] syncBits = new int[(count - 1) / syncInterval];
+        for (int i = 0; i < count; i += syncInterval) {
+            if (i > 0)
+                syncBits[i / syncInterval - 1] = (int) bits.getBitCount();
+            codebook.encode(bits, block, i, Math.min(syncInterval, count - i));
+        }
+        bits.flush();
+        return new EncodedBlock(bytes.toByteArray(), syncBits);
+    }
+
+    private static byte[] headerBytes(int blockSize, int syncInterval, long length, Codebook codebook)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BitOutputStream bits = new BitOutputStream(bytes);
+        bits.writeBits(MAGIC, 32);
+        bits.writeBits(VERSION, 8);
+        HuffmanHeader.writeVarint(bits, blockSize);
+        HuffmanHeader.writeVarint(bits, syncInterval);
+        HuffmanHeader.writeVarint(bits, length);
+        HuffmanHeader.writeLengths(bits, codebook);
+        bits.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeIndex(CountingOutputStream out, ArrayList<Long> offsets, ArrayList<int[]> syncs)
+            throws IOException {
+        long indexOffset = out.getCount();
+        int size = 4 + offsets.size() * 8 + 8;
+        for (int[] syncBits : syncs)
+            size += syncBits.length * 4;
+
+        ByteBuffer index = ByteBuffer.allocate(size);
+        index.putInt(offsets.size());
+        for (int i = 0; i < offsets.size(); i++) {
+            index.putLong(offsets.get(i));
+            for (int bit : syncs.get(i))
+                index.putInt(bit);
+        }
+        index.putLong(indexOffset);
+        out.write(index.array());
+    }
+
+    /**
+     * This class gives access to the blocks of an encoded container. It is
+     * safe to decode different blocks from several threads at once.
+     */
+    public static class Container {
+        private final FileChannel channel;
+        private final int blockSize;
+        private final int syncInterval;
+        private final long length;
+        private final Codebook codebook;
+        private final long[] offsets;
+        private final int[][] syncBits;
+
+        private Container(FileChannel channel, int blockSize, int syncInterval, long length, Codebook codebook,
+                long[] offsets, int[][] syncBits) {
+            this.channel = channel;
+            this.blockSize = blockSize;
+            this.syncInterval = syncInterval;
+            this.length = length;
+            this.codebook = codebook;
+            this.offsets = offsets;
+            this.syncBits = syncBits;
+
+            // Build the decoding tables up front so threads can share them
+            if (length > 0)
+                codebook.getDecoder();
+        }
+
+        /**
+         * Reads the header and block index of a container
+         *
+         * @param encodedFile The block container to open
+         * @return The opened container
+         * @throws IOException If the file is not a block container
+         */
+        public static Container open(String encodedFile) throws IOException {
+            BitInputStream header = new BitInputStream(new FileInputStream(encodedFile));
+            int blockSize, syncInterval, version;
+            long length, headerLength;
+            Codebook codebook;
+            try {
+                if (header.readBits(32) != MAGIC)
+                    throw new IOException("Not a huffman block container");
+                version = (int) header.readBits(8);
+                if (version < 1 || version > VERSION)
+                    throw new IOException("Unsupported block container version " + version);
+                long block = HuffmanHeader.readVarint(header);
+                long interval = version >= 2 ? HuffmanHeader.readVarint(header) : block;
+                if (block <= 0 || block > MAX_BLOCK_SIZE || interval <= 0 || interval > Integer.MAX_VALUE)
+                    throw new IOException("Corrupt block container header");
+                blockSize = (int) block;
+                syncInterval = (int) interval;
+                length = HuffmanHeader.readVarint(header);
+                codebook = HuffmanHeader.readLengths(header);
+                headerLength = (header.getBitCount() + 7) / 8;
+            } finally {
+                header.close();
+            }
+
+            FileChannel channel = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+            try {
+                // Check every offset against the file before trusting it with
+                // an allocation, so a cut-off file fails with an IOException
+                long size = channel.size();
+                if (size < headerLength + 8)
+                    throw new IOException("Corrupt block container, it ends before its index");
+                ByteBuffer trailer = readFully(channel, size - 8, 8);
+                long indexOffset = trailer.getLong();
+                if (indexOffset < headerLength || indexOffset > size - 8 - 4
+                        || size - 8 - indexOffset > Integer.MAX_VALUE)
+                    throw new IOException("Corrupt block container, index offset " + indexOffset);
+                ByteBuffer index = readFully(channel, indexOffset, (int) (size - 8 - indexOffset));
+                int count = index.getInt();
+                if (length < 0 || count != (length + blockSize - 1) / blockSize)
+                    throw new IOException("Corrupt block container, " + count + " blocks for " + length + " bytes");
+                // The header says how many blocks there are, so only the
+                // index itself can vouch for that many offsets
+                if (count < 0 || 8L * count > index.remaining())
+                    throw new IOException("Corrupt block container, the index is cut short");
+
+                // One extra offset marks where the last block ends
+                long[] offsets = new long[count + 1];
+                int[][] syncBits = new int[count][];
+                for (int i = 0; i < count; i++) {
+                    if (index.remaining() < 8)
+                        throw new IOException("Corrupt block container, the index is cut short");
+                    offsets[i] = index.getLong();
+                    if (offsets[i] < (i == 0 ? headerLength : offsets[i - 1]) || offsets[i] > indexOffset)
+                        throw new IOException("Corrupt block container, block " + i + " at " + offsets[i]);
+                    int blockLength = (int) Math.min(blockSize, length - (long) i * blockSize);
+                    int syncs = version >= 2 ? (blockLength - 1) / syncInterval : 0;
+                    if (index.remaining() < 4L * syncs)
+                        throw new IOException("Corrupt block container, the index is cut short");
+                    syncBits[i] = new int[syncs];
+                    for (int j = 0; j < syncBits[i].length; j++)
+                        syncBits[i][j] = index.getInt();
+                }
+                offsets[count] = indexOffset;
+                return new Container(channel, blockSize, syncInterval, length, codebook, offsets, syncBits);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public int getSyncInterval() {
+            return syncInterval;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getBlockCount() {
+            return offsets.length - 1;
+        }
+
+        public Codebook getCodebook() {
+            return codebook;
+        }
+
+        /**
+         * @return The number of input bytes stored in the given block
+         */
+        public int getBlockLength(int block) {
+            return (int) Math.min(blockSize, length - (long) block * blockSize);
+        }
+
+        /**
+         * @return A bit reader over the encoded bytes of the given block
+         */
+        public BitInputStream openBlock(int block) throws IOException {
+            ByteBuffer encoded = readFully(channel, offsets[block], (int) (offsets[block + 1] - offsets[block]));
+            return new BitInputStream(new ByteArrayInputStream(encoded.array()));
+        }
+
+        /**
+         * Finds the last sync point at or before a position inside a block
+         *
+         * @param block    The index of the block
+         * @param position The input offset inside the block
+         * @return The index of the sync point, where 0 is the block's start
+         */
+        public int getSyncBefore(int block, int position) {
+            return Math.min(position / syncInterval, syncBits[block].length);
+        }
+
+        /**
+         * Opens a bit reader positioned at one of a block's sync points. Only
+         * the bytes which are actually decoded get read from the file.
+         *
+         * @param block The index of the block
+         * @param sync  The index of the sync point, where 0 is the block's start
+         * @return A bit reader whose next code is the one for input offset
+         *         sync * getSyncInterval() inside the block
+         */
+        public BitInputStream openAtSync(int block, int sync) throws IOException {
+            long bit = sync == 0 ? 0 : syncBits[block][sync - 1] & 0xFFFFFFFFL;
+            BitInputStream in = new BitInputStream(
+                    new ChannelInputStream(channel, offsets[block] + bit / 8, offsets[block + 1]), 1 << 12);
+            if (bit % 8 != 0)
+                in.readBits((int) (bit % 8));
+            return in;
+        }
+
+        /**
+         * Decodes a whole block
+         *
+         * @param block The index of the block
+         * @return The input bytes stored in the block
+         */
+        public byte[] decodeBlock(int block) throws IOException {
+            BitInputStream in = openBlock(block);
+            TableDecoder decoder = codebook.getDecoder();
+            byte[] decoded = new byte[getBlockLength(block)];
+            for (int i = 0; i < decoded.length; i++)
+                decoded[i] = (byte) decoder.decodeSymbol(in);
+            return decoded;
+        }
+
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    // Reads exactly count bytes at the given position with a positional read
+    private static ByteBuffer readFully(FileChannel channel, long position, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(count);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("Unexpected end of block container");
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads a range of a file channel with positional reads, so several
+     * streams can share one channel
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long limit;
+
+        ChannelInputStream(FileChannel channel, long position, long limit) {
+            this.channel = channel;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= limit)
+                return -1;
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, limit - position));
+            int read = channel.read(buffer, position);
+            if (read > 0)
+                position += read;
+            return read;
+        }
+    }
+
+    /**
+     * Keeps track of how many bytes have been written, so block offsets can
+     * be recorded without asking the file
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
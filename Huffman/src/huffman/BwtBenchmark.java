@@ -0,0 +1,68 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * This class compares the BWT pipeline of BwtCoding with order-0 huffman
+ * coding (encodeBytes) on compression ratio and throughput. It runs over
+ * input1.txt through input6.txt and any other files given as arguments, after
+ * round tripping one random block of BwtCoding.MAX_BLOCK_SIZE bytes.
+ */
+public class BwtBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        roundTripMaxBlock();
+
+        System.err.printf("%-20s %10s %10s %10s %12s %12s\n", "input", "bytes", "order-0", "BWT", "encode MB/s",
+                "decode MB/s");
+        File encoded = File.createTempFile("huffman-bwt", ".enc");
+        File decoded = File.createTempFile("huffman-bwt", ".dec");
+        encoded.deleteOnExit();
+        decoded.deleteOnExit();
+        String enc = encoded.getPath(), dec = decoded.getPath();
+        for (String input : Benchmarks.inputs(args)) {
+            long bytes = new File(input).length();
+            HuffmanCoding.encodeBytes(input, enc);
+            long order0Size = encoded.length();
+
+            long encodeNanos = Benchmarks.best(ROUNDS, () -> BwtCoding.encode(input, enc));
+            long bwtSize = encoded.length();
+            long decodeNanos = Benchmarks.best(ROUNDS, () -> BwtCoding.decode(enc, dec));
+            if (Files.mismatch(new File(input).toPath(), decoded.toPath()) != -1)
+                throw new IllegalStateException(input + " did not round trip");
+
+            System.err.printf("%-20s %10d %9.2fx %9.2fx %12.1f %12.1f\n", new File(input).getName(), bytes,
+                    (double) bytes / order0Size, (double) bytes / bwtSize, Benchmarks.rate(bytes, encodeNanos),
+                    Benchmarks.rate(bytes, decodeNanos));
+        }
+        encoded.delete();
+        decoded.delete();
+    }
+
+    /**
+     * Round trips one block of random bytes as large as a block can be, where
+     * row numbers use every bit of the links untransform follows
+     */
+    private static void roundTripMaxBlock() throws IOException {
+        File input = File.createTempFile("huffman-bwt", ".bin");
+        File encoded = File.createTempFile("huffman-bwt", ".bwt");
+        File decoded = File.createTempFile("huffman-bwt", ".out");
+        try {
+            byte[] block = new byte[BwtCoding.MAX_BLOCK_SIZE];
+            new Random(BwtCoding.MAX_BLOCK_SIZE).nextBytes(block);
+            Files.write(input.toPath(), block);
+            BwtCoding.encode(input.getPath(), encoded.getPath(), BwtCoding.MAX_BLOCK_SIZE, 2);
+            BwtCoding.decode(encoded.getPath(), decoded.getPath());
+            if (Files.mismatch(input.toPath(), decoded.toPath()) != -1)
+                throw new IllegalStateException("A block of MAX_BLOCK_SIZE bytes did not round trip");
+        } finally {
+            input.delete();
+            encoded.delete();
+            decoded.delete();
+        }
+    }
+}
@@ -0,0 +1,619 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class encodes and decodes files with a Burrows-Wheeler transform,
+ * move-to-front, and run-length stage in front of the huffman coder, the way
+ * bzip2 does. Each block goes through these steps:
+ *
+ * <pre>
+ * BWT    the block's bytes are replaced by the last column of its sorted
+ *        rotations, which groups bytes followed by the same context together.
+ *        The rotations are sorted through a suffix array built with SA-IS in
+ *        linear time.
+ * MTF    each byte becomes its position in a list of recently seen bytes,
+ *        so the grouped bytes turn into many small numbers, mostly 0.
+ * RLE    each run of 0s is written as its length in bijective base 2, with
+ *        the digits RUNA (1) and RUNB (2). Every other position p becomes the
+ *        symbol p + 1.
+ * </pre>
+ *
+ * The resulting symbols get a codebook of their own from makeSortedList and
+ * makeTree, so every block can be encoded and decoded on its own. Blocks are
+ * encoded and decoded on a pool of threads, and only a couple of blocks per
+ * thread are in memory at once. The file looks like this:
+ *
+ * <pre>
+ * header   32-bit magic "HUFW", 8-bit version, varint block size, varint
+ *          total length
+ * blocks   for each block, the 32-bit byte length of its body, then the body:
+ *          varint block length, varint primary index, varint symbol count,
+ *          code lengths as in HuffmanHeader, then the codes, padded with
+ *          zeroes to a whole byte
+ * </pre>
+ */
+public class BwtCoding {
+    public static final int MAGIC = 0x48554657;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    // Keeps a row number and a byte together in one int when decoding
+    public static final int MAX_BLOCK_SIZE = 1 << 23;
+
+    private static final int RUNA = 0;
+    private static final int RUNB = 1;
+    private static final int SYMBOLS = 257;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Encodes a file with the default block size and one thread per core
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encode(String inputFile, String encodedFile) throws IOException {
+        encode(inputFile, encodedFile, DEFAULT_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Encodes a file block by block on a pool of threads
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     * @param blockSize   The number of input bytes in each block
+     * @param threads     The number of encoding threads
+     */
+    public static void encode(String inputFile, String encodedFile, int blockSize, int threads) throws IOException {
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE);
+        long length = Files.size(Paths.get(inputFile));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        InputStream in = new FileInputStream(inputFile);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(encodedFile), 1 << 16));
+        try {
+            BitOutputStream header = new BitOutputStream(out);
+            header.writeBits(MAGIC, 32);
+            header.writeBits(VERSION, 8);
+            HuffmanHeader.writeVarint(header, blockSize);
+            HuffmanHeader.writeVarint(header, length);
+            header.flush();
+
+            long read = 0;
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+            while (true) {
+                byte[] block = in.readNBytes(blockSize);
+                if (block.length == 0)
+                    break;
+                read += block.length;
+                pending.add(pool.submit(() -> encodeBlock(block)));
+
+                // Keep a bounded number of blocks in flight
+                while (pending.size() >= threads * 2)
+                    writeBlock(out, pending.remove().get());
+            }
+            while (!pending.isEmpty())
+                writeBlock(out, pending.remove().get());
+            if (read != length)
+                throw new IOException(inputFile + " changed while it was being encoded");
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("BWT block encoding failed", e);
+        } finally {
+            pool.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] body) throws IOException {
+        out.writeInt(body.length);
+        out.write(body);
+    }
+
+    /**
+     * Decodes a file with one thread per core
+     *
+     * @param encodedFile The file to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        decode(encodedFile, decodedFile, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Decodes a file written by encode on a pool of threads. Decoded blocks
+     * are written out in order.
+     *
+     * @param encodedFile The file to decode
+     * @param decodedFile The file which you want to decode into
+     * @param threads     The number of decoding threads
+     */
+    public static void decode(String encodedFile, String decodedFile, int threads) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(encodedFile), 1 << 16));
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(decodedFile), 1 << 16);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a BWT huffman file");
+            int version = in.readUnsignedByte();
+            if (version != VERSION)
+                throw new IOException("Unsupported BWT huffman file version " + version);
+            long blockSize = readVarint(in);
+            long length = readVarint(in);
+            if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+                throw new IOException("Corrupt BWT huffman file, block size " + blockSize);
+
+            long done = 0;
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+            for (long queued = 0; queued < length;) {
+                byte[] body;
+                int size;
+                try {
+                    size = in.readInt();
+                    // A block's body can never be much larger than the block
+                    if (size < 0 || size > 4 * blockSize + 4096)
+                        throw new IOException("Corrupt BWT huffman file, block of " + size + " bytes");
+                    // 8 spare bytes let the decoder load whole longs near the
+                    // end
+                    body = new byte[size + 8];
+                    in.readFully(body, 0, size);
+                } catch (EOFException e) {
+                    throw new IOException("Corrupt BWT huffman file, it ends inside a block", e);
+                }
+                int expected = (int) Math.min(blockSize, length - queued);
+                pending.add(pool.submit(() -> decodeBlock(body, size, expected)));
+                queued += expected;
+
+                while (pending.size() >= threads * 2) {
+                    byte[] block = pending.remove().get();
+                    out.write(block);
+                    done += block.length;
+                }
+            }
+            while (!pending.isEmpty()) {
+                byte[] block = pending.remove().get();
+                out.write(block);
+                done += block.length;
+            }
+            if (done != length)
+                throw new IOException("Corrupt BWT huffman file, decoded " + done + " of " + length + " bytes");
+        } catch (EOFException e) {
+            throw new IOException("Corrupt BWT huffman file, it ends inside the header", e);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("BWT block decoding failed", e);
+        } finally {
+            pool.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Runs one block through BWT, MTF, RLE and huffman coding
+     *
+     * @param block The block's bytes, at least one
+     * @return The block's body
+     */
+    static byte[] encodeBlock(byte[] block) throws IOException {
+        int n = block.length;
+        int[] primary = new int[1];
+        byte[] last = transform(block, primary);
+        char[] symbols = new char[n];
+        int count = moveToFront(last, symbols);
+
+        long[] occ = new long[SYMBOLS];
+        for (int i = 0; i < count; i++)
+            occ[symbols[i]]++;
+        Codebook codebook = Codebook.fromTree(HuffmanCoding.makeTree(HuffmanCoding.makeSortedList(occ)));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(n / 3 + 64);
+        BitOutputStream bits = new BitOutputStream(body);
+        HuffmanHeader.writeVarint(bits, n);
+        HuffmanHeader.writeVarint(bits, primary[0]);
+        HuffmanHeader.writeVarint(bits, count);
+        HuffmanHeader.writeLengths(bits, codebook);
+        codebook.encode(bits, symbols, 0, count);
+        bits.flush();
+        return body.toByteArray();
+    }
+
+    /**
+     * Decodes one block's body
+     *
+     * @param body     The body, followed by at least 8 spare bytes
+     * @param size     The length of the body without the spare bytes
+     * @param expected How many bytes the block must decode to
+     * @return The block's bytes
+     */
+    static byte[] decodeBlock(byte[] body, int size, int expected) throws IOException {
+        BitInputStream header = new BitInputStream(new ByteArrayInputStream(body, 0, size), 1 << 10);
+        long n = HuffmanHeader.readVarint(header);
+        long primary = HuffmanHeader.readVarint(header);
+        long count = HuffmanHeader.readVarint(header);
+        if (n != expected || primary < 1 || primary > n || count < 1 || count > n)
+            throw new IOException("Corrupt BWT huffman file, bad block header");
+        Codebook codebook = HuffmanHeader.readLengths(header);
+        // makeSortedList pairs a lone symbol with the one after it, which for
+        // the last symbol is one past the alphabet
+        if (codebook.size() > SYMBOLS + 1)
+            throw new IOException("Corrupt BWT huffman file, " + codebook.size() + " symbols");
+
+        char[] symbols = new char[(int) count];
+        long end = decodeSymbols(codebook.getDecoder(), body, header.getBitCount(), symbols);
+        if (end > 8L * size)
+            throw new IOException("Corrupt BWT huffman file, a block overran its length");
+
+        byte[] last = new byte[expected];
+        undoMoveToFront(symbols, last);
+        return untransform(last, (int) primary);
+    }
+
+    /**
+     * Decodes symbols.length codes starting at a bit position
+     *
+     * @return The bit position after the last code
+     */
+    private static long decodeSymbols(TableDecoder decoder, byte[] in, long position, char[] symbols)
+            throws IOException {
+        int[] table = decoder.getTable();
+        int rootBits = decoder.getRootBits();
+        int shift = 64 - rootBits;
+        long p = position;
+        for (int i = 0; i < symbols.length; i++) {
+            int entry = table[(int) (load(in, p) >>> shift)];
+            int bits = rootBits;
+            while (entry < 0) {
+                p += bits;
+                entry = ~entry;
+                bits = entry & 31;
+                entry = table[(entry >>> 5) + (int) (load(in, p) >>> (64 - bits))];
+            }
+            if ((entry & 31) == 0)
+                throw new IOException("Corrupt BWT huffman file, no code matches");
+            symbols[i] = (char) (entry >>> 5);
+            p += entry & 31;
+        }
+        return p;
+    }
+
+    /**
+     * Loads the 64 bits starting at a bit position, left-aligned. At least 57
+     * of them come from the array.
+     */
+    private static long load(byte[] in, long position) {
+        int index = (int) (position >>> 3);
+        if (index > in.length - 8)
+            return 0;
+        return (long) LONGS.get(in, index) << (position & 7);
+    }
+
+    /**
+     * Computes the Burrows-Wheeler transform of a block, with an end marker
+     * smaller than every byte appended so that sorting rotations is the same
+     * as sorting suffixes
+     *
+     * @param block   The bytes to transform
+     * @param primary Set to the row of the end marker, which is left out of
+     *                the result
+     * @return The last column of the sorted rotations, without the end marker
+     */
+    static byte[] transform(byte[] block, int[] primary) {
+        int n = block.length;
+        int[] s = new int[n + 1];
+        for (int i = 0; i < n; i++)
+            s[i] = (block[i] & 0xFF) + 1;
+        int[] sa = new int[n + 1];
+        suffixArray(s, sa, n + 1, 256);
+
+        byte[] last = new byte[n];
+        int o = 0;
+        for (int i = 0; i <= n; i++) {
+            if (sa[i] == 0)
+                primary[0] = i;
+            else
+                last[o++] = block[sa[i] - 1];
+        }
+        return last;
+    }
+
+    /**
+     * Undoes transform by following each row back to the row of the rotation
+     * one character earlier
+     */
+    static byte[] untransform(byte[] last, int primary) throws IOException {
+        int n = last.length;
+        // Where each byte's rows start, counting the end marker's row first
+        int[] start = new int[256];
+        for (byte b : last)
+            start[b & 0xFF]++;
+        for (int c = 0, sum = 1; c < 256; c++) {
+            int count = start[c];
+            start[c] = sum;
+            sum += count;
+        }
+
+        // links[row] holds the row whose rotation starts one character
+        // earlier, shifted up past the row's last character, so following the
+        // rows only touches one array. Row numbers go up to MAX_BLOCK_SIZE,
+        // which needs all 32 bits, so links are unsigned.
+        int[] links = new int[n + 1];
+        for (int row = 0; row <= n; row++) {
+            if (row == primary)
+                continue;
+            int c = last[row < primary ? row : row - 1] & 0xFF;
+            links[row] = start[c]++ << 8 | c;
+        }
+
+        // Row 0 is the rotation starting with the end marker, so its last
+        // character is the block's last byte. The rotation starting with the
+        // block's first byte is the primary row, which must come last.
+        byte[] block = new byte[n];
+        int link = links[0];
+        for (int k = n - 1; k >= 0; k--) {
+            block[k] = (byte) link;
+            int row = link >>> 8;
+            if ((row == primary) != (k == 0))
+                throw new IOException("Corrupt BWT huffman file, bad primary index");
+            link = links[row];
+        }
+        return block;
+    }
+
+    /**
+     * Replaces each byte with its position in a move-to-front list and
+     * run-length codes the zeroes
+     *
+     * @param in      The bytes
+     * @param symbols Array to write the symbols to, at least as long as in
+     * @return The number of symbols written
+     */
+    static int moveToFront(byte[] in, char[] symbols) {
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++)
+            order[i] = (byte) i;
+        int count = 0;
+        int run = 0;
+        for (byte b : in) {
+            if (order[0] == b) {
+                run++;
+                continue;
+            }
+            if (run > 0) {
+                count = writeRun(symbols, count, run);
+                run = 0;
+            }
+            int j = 1;
+            while (order[j] != b)
+                j++;
+            System.arraycopy(order, 0, order, 1, j);
+            order[0] = b;
+            symbols[count++] = (char) (j + 1);
+        }
+        if (run > 0)
+            count = writeRun(symbols, count, run);
+        return count;
+    }
+
+    // Writes a run of zeroes as RUNA and RUNB digits, lowest first
+    private static int writeRun(char[] symbols, int count, int run) {
+        while (run > 0) {
+            if ((run & 1) != 0) {
+                symbols[count++] = RUNA;
+                run = (run - 1) >> 1;
+            } else {
+                symbols[count++] = RUNB;
+                run = (run - 2) >> 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Undoes moveToFront
+     *
+     * @param symbols The symbols
+     * @param out     Array to write the bytes to, which they must fill exactly
+     */
+    static void undoMoveToFront(char[] symbols, byte[] out) throws IOException {
+        byte[] order = new byte[256];
+        for (int i = 0; i < 256; i++)
+            order[i] = (byte) i;
+        int o = 0;
+        long run = 0, weight = 1;
+        for (char symbol : symbols) {
+            if (symbol <= RUNB) {
+                run += weight << symbol;
+                weight <<= 1;
+                if (run > out.length - o)
+                    throw new IOException("Corrupt BWT huffman file, a run overran its block");
+                continue;
+            }
+            if (run > 0) {
+                Arrays.fill(out, o, o + (int) run, order[0]);
+                o += (int) run;
+                run = 0;
+                weight = 1;
+            }
+            int j = symbol - 1;
+            if (j > 255 || o == out.length)
+                throw new IOException("Corrupt BWT huffman file, bad symbol " + (int) symbol);
+            byte b = order[j];
+            System.arraycopy(order, 0, order, 1, j);
+            order[0] = b;
+            out[o++] = b;
+        }
+        Arrays.fill(out, o, o + (int) run, order[0]);
+        o += (int) run;
+        if (o != out.length)
+            throw new IOException("Corrupt BWT huffman file, a block decoded to " + o + " bytes");
+    }
+
+    /**
+     * Builds the suffix array of s with SA-IS (Nong, Zhang and Chan, 2009).
+     * Suffixes are sorted by their types and the sorted order of the LMS
+     * substrings, which is found by recursing on a string at most half as
+     * long, so the whole sort takes linear time.
+     *
+     * @param s  The string, whose last symbol is a unique 0 and whose other
+     *           symbols are between 1 and k
+     * @param sa Array to write the suffix array to
+     * @param n  The length of s
+     * @param k  The largest symbol
+     */
+    static void suffixArray(int[] s, int[] sa, int n, int k) {
+        if (n == 1) {
+            sa[0] = 0;
+            return;
+        }
+        // S-type suffixes are smaller than the suffix after them, L-type ones
+        // larger; the final 0 counts as S-type
+        boolean[] stype = new boolean[n];
+        stype[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--)
+            stype[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && stype[i + 1]);
+
+        // Sort the LMS substrings by placing them at their bucket ends and
+        // inducing the rest
+        int[] bucket = new int[k + 1];
+        Arrays.fill(sa, 0, n, -1);
+        bucketEnds(s, n, bucket);
+        for (int i = 1; i < n; i++) {
+            if (isLms(stype, i))
+                sa[--bucket[s[i]]] = i;
+        }
+        induce(s, sa, n, stype, bucket);
+
+        // Gather the sorted LMS positions at the front, and name each LMS
+        // substring by its rank among the distinct ones
+        int n1 = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLms(stype, sa[i]))
+                sa[n1++] = sa[i];
+        }
+        Arrays.fill(sa, n1, n, -1);
+        int name = 0;
+        for (int i = 0, previous = -1; i < n1; i++) {
+            int position = sa[i];
+            boolean differs = previous < 0;
+            for (int d = 0; !differs; d++) {
+                if (s[position + d] != s[previous + d] || stype[position + d] != stype[previous + d])
+                    differs = true;
+                else if (d > 0 && (isLms(stype, position + d) || isLms(stype, previous + d)))
+                    break;
+            }
+            if (differs) {
+                name++;
+                previous = position;
+            }
+            // LMS positions are at least 2 apart, so halving them keeps them
+            // apart and within the free half of the array
+            sa[n1 + (position >> 1)] = name - 1;
+        }
+        int[] s1 = new int[n1];
+        for (int i = n - 1, j = n1 - 1; i >= n1; i--) {
+            if (sa[i] >= 0)
+                s1[j--] = sa[i];
+        }
+
+        // Sort the LMS suffixes, recursing when two LMS substrings are equal
+        int[] sa1 = new int[n1];
+        if (name < n1) {
+            suffixArray(s1, sa1, n1, name - 1);
+        } else {
+            for (int i = 0; i < n1; i++)
+                sa1[s1[i]] = i;
+        }
+
+        // Place the sorted LMS suffixes at their bucket ends and induce the
+        // order of every other suffix from them
+        for (int i = 1, j = 0; i < n; i++) {
+            if (isLms(stype, i))
+                s1[j++] = i;
+        }
+        Arrays.fill(sa, 0, n, -1);
+        bucketEnds(s, n, bucket);
+        for (int i = n1 - 1; i >= 0; i--) {
+            int position = s1[sa1[i]];
+            sa[--bucket[s[position]]] = position;
+        }
+        induce(s, sa, n, stype, bucket);
+    }
+
+    private static boolean isLms(boolean[] stype, int i) {
+        return i > 0 && stype[i] && !stype[i - 1];
+    }
+
+    /**
+     * Fills in the L-type suffixes from left to right and then the S-type
+     * suffixes from right to left, each from the suffix after it
+     */
+    private static void induce(int[] s, int[] sa, int n, boolean[] stype, int[] bucket) {
+        bucketStarts(s, n, bucket);
+        for (int i = 0; i < n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !stype[j])
+                sa[bucket[s[j]]++] = j;
+        }
+        bucketEnds(s, n, bucket);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && stype[j])
+                sa[--bucket[s[j]]] = j;
+        }
+    }
+
+    private static void bucketStarts(int[] s, int n, int[] bucket) {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < n; i++)
+            bucket[s[i]]++;
+        for (int c = 0, sum = 0; c < bucket.length; c++) {
+            int count = bucket[c];
+            bucket[c] = sum;
+            sum += count;
+        }
+    }
+
+    private static void bucketEnds(int[] s, int n, int[] bucket) {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < n; i++)
+            bucket[s[i]]++;
+        for (int c = 0, sum = 0; c < bucket.length; c++) {
+            sum += bucket[c];
+            bucket[c] = sum;
+        }
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt varint");
+    }
+}
@@ -0,0 +1,37 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class reads whole Unicode code points from a character reader, joining
+ * surrogate pairs. A surrogate without its partner is returned on its own.
+ */
+public class CodePointReader {
+    private final Reader in;
+    private int pending = -1;
+
+    public CodePointReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * @return The next code point, or -1 at the end of the input
+     */
+    public int read() throws IOException {
+        int c = pending >= 0 ? pending : in.read();
+        pending = -1;
+        if (c < 0 || !Character.isHighSurrogate((char) c))
+            return c;
+
+        int next = in.read();
+        if (next >= 0 && Character.isLowSurrogate((char) next))
+            return Character.toCodePoint((char) c, (char) next);
+        pending = next;
+        return c;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,315 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * This class holds a canonical huffman code. Only the length of each symbol's
+ * code needs to be known: codes are handed out in order of length, and
+ * symbols with the same length get consecutive codes in symbol order. This
+ * means the whole codebook can be rebuilt from a list of lengths.
+ *
+ * Codes are kept in arrays indexed directly by symbol. A length of 0 means
+ * the symbol has no code. The legacy string encodings from makeEncodings,
+ * which are not canonical, can be packed into the same arrays with
+ * fromEncodings so that they share the bulk encoding loops.
+ */
+public class Codebook {
+    public static final int MAX_CODE_LENGTH = 64;
+
+    private final long[] codeBits;
+    private final byte[] codeLen;
+    private final int maxLength;
+    private TableDecoder decoder;
+
+    /**
+     * Assigns canonical codes for the given code lengths
+     *
+     * @param lengths The length of each symbol's code, or 0 for unused symbols.
+     *                The lengths must describe a prefix-free code.
+     */
+    public Codebook(byte[] lengths) {
+        codeLen = lengths.clone();
+        codeBits = new long[lengths.length];
+        maxLength = maxLength(codeLen);
+
+        // Count how many codes there are of each length
+        long[] nextCode = new long[MAX_CODE_LENGTH + 2];
+        for (byte len : codeLen) {
+            if (len < 0 || len > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Invalid code length " + len);
+            nextCode[len]++;
+        }
+
+        // The first code of each length follows on from the last code of the
+        // previous length, shifted over by one bit
+        long code = 0;
+        nextCode[0] = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            long count = nextCode[len];
+            if (len < 63 && code + count > 1L << len)
+                throw new IllegalArgumentException("Code lengths do not describe a prefix-free code");
+            nextCode[len] = code;
+            code = (code + count) << 1;
+        }
+
+        for (int s = 0; s < codeLen.length; s++) {
+            if (codeLen[s] > 0)
+                codeBits[s] = nextCode[codeLen[s]]++;
+        }
+    }
+
+    private Codebook(long[] codeBits, byte[] codeLen) {
+        this.codeBits = codeBits;
+        this.codeLen = codeLen;
+        maxLength = maxLength(codeLen);
+    }
+
+    private static int maxLength(byte[] lengths) {
+        int max = 0;
+        for (byte len : lengths)
+            max = Math.max(max, len);
+        return max;
+    }
+
+    /**
+     * Packs string encodings like the ones from makeEncodings into a codebook,
+     * keeping the codes exactly as they are
+     *
+     * @param encodings Array indexed by symbol holding strings of 1's and 0's,
+     *                  or null for symbols without a code
+     * @return A codebook which writes the same bits as the strings
+     */
+    public static Codebook fromEncodings(String[] encodings) {
+        long[] codeBits = new long[encodings.length];
+        byte[] codeLen = new byte[encodings.length];
+        for (int s = 0; s < encodings.length; s++) {
+            String code = encodings[s];
+            if (code == null)
+                continue;
+            if (code.length() > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Encoding of " + s + " is longer than " + MAX_CODE_LENGTH + " bits");
+            long bits = 0;
+            for (int i = 0; i < code.length(); i++)
+                bits = (bits << 1) | (code.charAt(i) == '1' ? 1 : 0);
+            codeBits[s] = bits;
+            codeLen[s] = (byte) code.length();
+        }
+        return new Codebook(codeBits, codeLen);
+    }
+
+    /**
+     * Builds the canonical codebook which gives every symbol the same code
+     * length as the given huffman coding tree
+     *
+     * @param root The root of the huffman coding tree
+     * @return The canonical codebook
+     */
+    public static Codebook fromTree(TreeNode root) {
+        return new Codebook(lengthsFromTree(root));
+    }
+
+    /**
+     * Reads the depth of every leaf in a huffman coding tree
+     *
+     * @param root The root of the huffman coding tree
+     * @return Array indexed by character, holding each character's code length
+     */
+    public static byte[] lengthsFromTree(TreeNode root) {
+        byte[] lengths = new byte[maxCharacter(root) + 1];
+        lengthsFromTree(root, 0, lengths);
+        return lengths;
+    }
+
+    private static void lengthsFromTree(TreeNode node, int depth, byte[] lengths) {
+        if (node.getLeft() == null && node.getRight() == null) {
+            if (depth > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Huffman tree is deeper than " + MAX_CODE_LENGTH);
+            // A lone leaf at the root still needs a one bit code
+            lengths[node.getData().getCharacter()] = (byte) Math.max(depth, 1);
+            return;
+        }
+        if (node.getLeft() != null)
+            lengthsFromTree(node.getLeft(), depth + 1, lengths);
+        if (node.getRight() != null)
+            lengthsFromTree(node.getRight(), depth + 1, lengths);
+    }
+
+    private static int maxCharacter(TreeNode node) {
+        if (node.getLeft() == null && node.getRight() == null)
+            return node.getData().getCharacter();
+        int max = 0;
+        if (node.getLeft() != null)
+            max = Math.max(max, maxCharacter(node.getLeft()));
+        if (node.getRight() != null)
+            max = Math.max(max, maxCharacter(node.getRight()));
+        return max;
+    }
+
+    /**
+     * @return The number of symbols the codebook has room for, whether or not
+     *         they have a code
+     */
+    public int size() {
+        return codeLen.length;
+    }
+
+    public long getCodeBits(int symbol) {
+        return codeBits[symbol];
+    }
+
+    public int getCodeLength(int symbol) {
+        return symbol < codeLen.length ? codeLen[symbol] : 0;
+    }
+
+    /**
+     * @return A copy of the code length of every symbol
+     */
+    public byte[] getLengths() {
+        return codeLen.clone();
+    }
+
+    /**
+     * Writes one symbol's code
+     *
+     * @param out    The bit writer to write to
+     * @param symbol The symbol to encode, which must have a code
+     * @throws IllegalArgumentException If the symbol has no code
+     */
+    public void encodeSymbol(BitOutputStream out, int symbol) throws IOException {
+        if (symbol < 0 || symbol >= codeLen.length || codeLen[symbol] == 0)
+            throw noCode(symbol);
+        out.writeBits(codeBits[symbol], codeLen[symbol]);
+    }
+
+    // Writing no bits for a symbol without a code would silently drop it
+    private static IllegalArgumentException noCode(int symbol) {
+        return new IllegalArgumentException("Symbol " + symbol + " has no code");
+    }
+
+    /**
+     * Writes the codes for a run of characters. Codes are collected in a local
+     * 64-bit accumulator and handed to the bit writer 32 bits at a time.
+     *
+     * @param out The bit writer to write to
+     * @param src The characters to encode, which must all have codes
+     * @param off The index of the first character
+     * @param len The number of characters
+     * @throws IllegalArgumentException If a character has no code
+     */
+    public void encode(BitOutputStream out, char[] src, int off, int len) throws IOException {
+        long[] codeBits = this.codeBits;
+        byte[] codeLen = this.codeLen;
+        long acc = 0;
+        int n = 0;
+        if (maxLength <= 32) {
+            // Fewer than 32 bits are left over after each step, so a code of
+            // up to 32 bits always fits next to them
+            for (int i = off, end = off + len; i < end; i++) {
+                int s = src[i];
+                int l = s < codeLen.length ? codeLen[s] : 0;
+                if (l == 0)
+                    throw noCode(s);
+                acc = (acc << l) | codeBits[s];
+                n += l;
+                if (n >= 32) {
+                    n -= 32;
+                    out.writeBits(acc >>> n, 32);
+                }
+            }
+        } else {
+            for (int i = off, end = off + len; i < end; i++) {
+                int s = src[i];
+                int l = s < codeLen.length ? codeLen[s] : 0;
+                if (l == 0)
+                    throw noCode(s);
+                if (n + l > 64) {
+                    out.writeBits(acc, n);
+                    acc = 0;
+                    n = 0;
+                }
+                // With n == 0 a 64-bit code shifts by nothing, which is
+                // harmless because acc is 0 then
+                acc = (acc << l) | codeBits[s];
+                n += l;
+            }
+        }
+        out.writeBits(acc, n);
+    }
+
+    /**
+     * Writes the codes for a run of bytes, treating each as an unsigned
+     * symbol. Works the same way as encode for characters.
+     *
+     * @param out The bit writer to write to
+     * @param src The bytes to encode, which must all have codes
+     * @param off The index of the first byte
+     * @param len The number of bytes
+     * @throws IllegalArgumentException If a byte has no code
+     */
+    public void encode(BitOutputStream out, byte[] src, int off, int len) throws IOException {
+        long[] codeBits = this.codeBits;
+        byte[] codeLen = this.codeLen;
+        long acc = 0;
+        int n = 0;
+        if (maxLength <= 32) {
+            // Fewer than 32 bits are left over after each step, so a code of
+            // up to 32 bits always fits next to them
+            for (int i = off, end = off + len; i < end; i++) {
+                int s = src[i] & 0xFF;
+                int l = s < codeLen.length ? codeLen[s] : 0;
+                if (l == 0)
+                    throw noCode(s);
+                acc = (acc << l) | codeBits[s];
+                n += l;
+                if (n >= 32) {
+                    n -= 32;
+                    out.writeBits(acc >>> n, 32);
+                }
+            }
+        } else {
+            for (int i = off, end = off + len; i < end; i++) {
+                int s = src[i] & 0xFF;
+                int l = s < codeLen.length ? codeLen[s] : 0;
+                if (l == 0)
+                    throw noCode(s);
+                if (n + l > 64) {
+                    out.writeBits(acc, n);
+                    acc = 0;
+                    n = 0;
+                }
+                // With n == 0 a 64-bit code shifts by nothing, which is
+                // harmless because acc is 0 then
+                acc = (acc << l) | codeBits[s];
+                n += l;
+            }
+        }
+        out.writeBits(acc, n);
+    }
+
+    /**
+     * @return The lookup table decoder for this codebook, built on first use
+     */
+    public TableDecoder getDecoder() {
+        if (decoder == null) {
+            int used = 0;
+            for (byte len : codeLen) {
+                if (len > 0)
+                    used++;
+            }
+
+            int[] symbols = new int[used];
+            long[] codes = new long[used];
+            int[] lengths = new int[used];
+            for (int s = 0, i = 0; s < codeLen.length; s++) {
+                if (codeLen[s] > 0) {
+                    symbols[i] = s;
+                    codes[i] = codeBits[s];
+                    lengths[i] = codeLen[s];
+                    i++;
+                }
+            }
+            decoder = new TableDecoder(symbols, codes, lengths);
+        }
+        return decoder;
+    }
+}
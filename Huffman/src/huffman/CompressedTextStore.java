@@ -0,0 +1,273 @@
+package huffman;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * This class keeps many strings in memory huffman coded, packed one after the
+ * other into a single byte array, and decodes any one of them on request. A
+ * string is stored as the codes of its characters followed by the code for
+ * END, starting at the bit right after the previous string, so no space is
+ * lost to object headers or byte alignment.
+ *
+ * Rather than the position of every string, the store only keeps the bit
+ * position of every sampleRate-th string. Getting a string jumps to the
+ * nearest sample before it and skips the strings in between by reading their
+ * codes, without building them. A higher sample rate saves index memory at
+ * the cost of longer lookups.
+ *
+ * The codebook is trained once on sample strings. A character the samples
+ * never had is stored as the code for ESCAPE followed by the character's 16
+ * bits, so any string can be added later. Codes are at most MAX_CODE_LENGTH
+ * bits.
+ *
+ * Strings can be appended by one thread at a time. Once the last string is
+ * appended, any number of threads may get strings at once.
+ */
+public class CompressedTextStore {
+    public static final int END = 65536;
+    public static final int ESCAPE = 65537;
+    public static final int MAX_CODE_LENGTH = 24;
+    public static final int DEFAULT_SAMPLE_RATE = 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    // Codes for characters up to the highest one the samples had, and for
+    // END and ESCAPE. The Codebook they come from covers every character and
+    // is not kept, since it is far larger than these.
+    private final int[] codeBits;
+    private final byte[] codeLen;
+    private final int endBits, endLen, escapeBits, escapeLen;
+    private final int[] table;
+    private final int rootBits;
+    private final int sampleRate;
+
+    // Always at least 8 bytes longer than the bits written, so 64 bits can be
+    // read or written at any position without a bounds check
+    private byte[] data = new byte[1 << 12];
+    private long bitLength;
+    private long[] samples = new long[16];
+    private int size;
+
+    private CompressedTextStore(Codebook codebook, int sampleRate) {
+        if (sampleRate < 1)
+            throw new IllegalArgumentException("Invalid sample rate " + sampleRate);
+        this.sampleRate = sampleRate;
+        int chars = END;
+        while (chars > 0 && codebook.getCodeLength(chars - 1) == 0)
+            chars--;
+        codeBits = new int[chars];
+        codeLen = new byte[chars];
+        for (int s = 0; s < chars; s++) {
+            codeBits[s] = (int) codebook.getCodeBits(s);
+            codeLen[s] = (byte) codebook.getCodeLength(s);
+        }
+        endBits = (int) codebook.getCodeBits(END);
+        endLen = codebook.getCodeLength(END);
+        escapeBits = (int) codebook.getCodeBits(ESCAPE);
+        escapeLen = codebook.getCodeLength(ESCAPE);
+        TableDecoder decoder = codebook.getDecoder();
+        table = decoder.getTable();
+        rootBits = decoder.getRootBits();
+    }
+
+    /**
+     * Makes an empty store whose codebook is trained on sample strings
+     *
+     * @param samples    Strings like the ones which will be stored
+     * @param sampleRate How many strings there are to each indexed position
+     * @return The empty store
+     */
+    public static CompressedTextStore train(Iterable<? extends CharSequence> samples, int sampleRate) {
+        long[] occ = new long[ESCAPE + 1];
+        for (CharSequence sample : samples) {
+            for (int i = 0; i < sample.length(); i++)
+                occ[sample.charAt(i)]++;
+            occ[END]++;
+        }
+        occ[END]++;
+        occ[ESCAPE]++;
+        return new CompressedTextStore(HuffmanCoding.makeCodebook(occ, MAX_CODE_LENGTH), sampleRate);
+    }
+
+    /**
+     * Makes an empty store whose codebook is trained on sample strings, with
+     * the default sample rate
+     *
+     * @param samples Strings like the ones which will be stored
+     * @return The empty store
+     */
+    public static CompressedTextStore train(Iterable<? extends CharSequence> samples) {
+        return train(samples, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Makes a store holding the given strings, with a codebook trained on them
+     *
+     * @param strings The strings to store, which are read twice
+     * @return The store, where string i is the i-th of strings
+     */
+    public static CompressedTextStore build(Iterable<? extends CharSequence> strings) {
+        CompressedTextStore store = train(strings);
+        for (CharSequence string : strings)
+            store.append(string);
+        store.trimToSize();
+        return store;
+    }
+
+    /**
+     * @return The number of strings stored
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a string to the end of the store
+     *
+     * @param string The string to add
+     * @return The index the string can be fetched with
+     */
+    public int append(CharSequence string) {
+        if (size % sampleRate == 0) {
+            if (size / sampleRate == samples.length)
+                samples = Arrays.copyOf(samples, Math.max(1, samples.length * 2));
+            samples[size / sampleRate] = bitLength;
+        }
+        // The longest a string can take is an ESCAPE and 16 bits per
+        // character, and then END
+        ensureCapacity(bitLength + (long) (string.length() + 1) * (MAX_CODE_LENGTH + 16));
+
+        int[] codeBits = this.codeBits;
+        byte[] codeLen = this.codeLen;
+        long position = bitLength;
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < codeLen.length && codeLen[c] > 0) {
+                put(position, codeBits[c], codeLen[c]);
+                position += codeLen[c];
+            } else {
+                put(position, (long) escapeBits << 16 | c, escapeLen + 16);
+                position += escapeLen + 16;
+            }
+        }
+        put(position, endBits, endLen);
+        bitLength = position + endLen;
+        return size++;
+    }
+
+    /**
+     * Decodes one string
+     *
+     * @param index The index append returned for it
+     * @return The string
+     */
+    public String get(int index) {
+        StringBuilder string = new StringBuilder();
+        get(index, string);
+        return string.toString();
+    }
+
+    /**
+     * Decodes one string onto the end of a StringBuilder, which can be reused
+     * between calls to avoid allocating
+     *
+     * @param index The index append returned for it
+     * @param dest  The StringBuilder to append the string to
+     */
+    public void get(int index, StringBuilder dest) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " is outside of 0-" + size);
+        byte[] data = this.data;
+        int[] table = this.table;
+        int rootBits = this.rootBits;
+        int shift = 64 - rootBits;
+        long position = samples[index / sampleRate];
+
+        // Skip the strings between the sample and the one wanted
+        for (int skip = index % sampleRate; skip > 0;) {
+            int entry = table[(int) (load(data, position) >>> shift)];
+            int bits = rootBits;
+            while (entry < 0) {
+                position += bits;
+                entry = ~entry;
+                bits = entry & 31;
+                entry = table[(entry >>> 5) + (int) (load(data, position) >>> (64 - bits))];
+            }
+            position += entry & 31;
+            int symbol = entry >>> 5;
+            if (symbol == END)
+                skip--;
+            else if (symbol == ESCAPE)
+                position += 16;
+        }
+
+        while (true) {
+            int entry = table[(int) (load(data, position) >>> shift)];
+            int bits = rootBits;
+            while (entry < 0) {
+                position += bits;
+                entry = ~entry;
+                bits = entry & 31;
+                entry = table[(entry >>> 5) + (int) (load(data, position) >>> (64 - bits))];
+            }
+            position += entry & 31;
+            int symbol = entry >>> 5;
+            if (symbol == END)
+                return;
+            if (symbol == ESCAPE) {
+                symbol = (int) (load(data, position) >>> 48);
+                position += 16;
+            }
+            dest.append((char) symbol);
+        }
+    }
+
+    /**
+     * @return Roughly how many bytes of heap the store uses, counting every
+     *         array it keeps, each with a 16 byte header, and the store itself
+     */
+    public long memoryUsage() {
+        long arrays = data.length + 8L * samples.length + 4L * codeBits.length + codeLen.length + 4L * table.length;
+        return arrays + 5 * 16 + 64;
+    }
+
+    /**
+     * @return The number of bits the strings take, packed
+     */
+    public long getBitLength() {
+        return bitLength;
+    }
+
+    /**
+     * Shrinks the arrays to fit the strings stored so far, which is worth
+     * doing once the last string has been appended
+     */
+    public void trimToSize() {
+        data = Arrays.copyOf(data, (int) ((bitLength + 7) >>> 3) + 8);
+        samples = Arrays.copyOf(samples, (size + sampleRate - 1) / sampleRate);
+    }
+
+    private void ensureCapacity(long bits) {
+        long needed = ((bits + 7) >>> 3) + 8;
+        if (needed > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Compressed text store is full");
+        if (needed > data.length)
+            data = Arrays.copyOf(data, (int) Math.min(Math.max(needed, 2L * data.length), Integer.MAX_VALUE - 8));
+    }
+
+    // Writes up to 56 bits at a bit position, where every bit is still 0
+    private void put(long position, long bits, int n) {
+        int index = (int) (position >>> 3);
+        long word = (long) LONGS.get(data, index);
+        LONGS.set(data, index, word | bits << (64 - n - (int) (position & 7)));
+    }
+
+    // Reads 64 bits from a bit position, of which at least the first 57 are
+    // the data's, left-aligned
+    private static long load(byte[] data, long position) {
+        return (long) LONGS.get(data, (int) (position >>> 3)) << (position & 7);
+    }
+}
@@ -0,0 +1,37 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class compares order-1 coding (ContextCoding) with the order-0 byte
+ * mode (encodeBytes) on size and decode throughput. It runs over input1.txt
+ * through input6.txt and any other files given as arguments.
+ */
+public class ContextBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %10s %12s %12s %12s %12s\n", "input", "bytes", "order-0", "order-1",
+                "o0 dec MB/s", "o1 dec MB/s");
+        File encoded = File.createTempFile("huffman-context", ".enc");
+        File decoded = File.createTempFile("huffman-context", ".dec");
+        encoded.deleteOnExit();
+        decoded.deleteOnExit();
+        String enc = encoded.getPath(), dec = decoded.getPath();
+        for (String input : Benchmarks.inputs(args)) {
+            long bytes = new File(input).length();
+            HuffmanCoding.encodeBytes(input, enc);
+            long order0Size = encoded.length();
+            long order0Nanos = Benchmarks.best(ROUNDS, () -> HuffmanCoding.decode(enc, dec));
+
+            ContextCoding.encode(input, enc);
+            long order1Size = encoded.length();
+            long order1Nanos = Benchmarks.best(ROUNDS, () -> ContextCoding.decode(enc, dec));
+            System.err.printf("%-20s %10d %12d %12d %12.1f %12.1f\n", new File(input).getName(), bytes, order0Size,
+                    order1Size, Benchmarks.rate(bytes, order0Nanos), Benchmarks.rate(bytes, order1Nanos));
+        }
+        encoded.delete();
+        decoded.delete();
+    }
+}
@@ -0,0 +1,243 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class encodes and decodes files with an order-1 context model: every
+ * byte is coded with a codebook chosen by the byte before it, so structured
+ * text where one character strongly predicts the next compresses much better
+ * than with a single table. The first byte uses context 0.
+ *
+ * Contexts which occur too rarely to pay for their own code lengths share one
+ * codebook built from all of them together. A context gets its own codebook
+ * only when that saves more bits than its code lengths cost in the header.
+ * The file looks like this:
+ *
+ * <pre>
+ * magic       32 bits, "HUFO"
+ * version      8 bits
+ * length      varint, number of bytes in the original input
+ * contexts    varint number of contexts with their own codebook, then for
+ *             each an 8-bit context followed by code lengths as in
+ *             HuffmanHeader
+ * shared       8 bits, 1 if the shared codebook follows, 0 if not
+ * codes       the encoded bytes, padded with zeroes to a whole byte
+ * </pre>
+ *
+ * Encoding looks codes up in flat arrays indexed by context and byte
+ * together, and decoding keeps one TableDecoder per context, with the rare
+ * contexts all pointing at the shared decoder.
+ */
+public class ContextCoding {
+    public static final int MAGIC = 0x4855464F;
+    public static final int VERSION = 1;
+
+    private static final int CONTEXTS = 256;
+
+    /**
+     * Encodes a file with one codebook per preceding byte
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encode(String inputFile, String encodedFile) throws IOException {
+        long[][] counts = new long[CONTEXTS][CONTEXTS];
+        long length = count(inputFile, counts);
+
+        Codebook[] codebooks = new Codebook[CONTEXTS];
+        Codebook shared = chooseCodebooks(counts, codebooks);
+
+        try (InputStream in = new FileInputStream(inputFile);
+                OutputStream file = new FileOutputStream(encodedFile)) {
+            BitOutputStream out = new BitOutputStream(file);
+            out.writeBits(MAGIC, 32);
+            out.writeBits(VERSION, 8);
+            HuffmanHeader.writeVarint(out, length);
+            int own = 0;
+            for (Codebook codebook : codebooks) {
+                if (codebook != null)
+                    own++;
+            }
+            HuffmanHeader.writeVarint(out, own);
+            for (int c = 0; c < CONTEXTS; c++) {
+                if (codebooks[c] != null) {
+                    out.writeBits(c, 8);
+                    HuffmanHeader.writeLengths(out, codebooks[c]);
+                }
+            }
+            out.writeBits(shared != null ? 1 : 0, 8);
+            if (shared != null)
+                HuffmanHeader.writeLengths(out, shared);
+
+            // Lay every context's codes out in one pair of arrays, indexed by
+            // the previous byte in the high 8 bits and the current byte in the
+            // low 8
+            long[] codeBits = new long[CONTEXTS * CONTEXTS];
+            byte[] codeLen = new byte[CONTEXTS * CONTEXTS];
+            for (int c = 0; c < CONTEXTS; c++) {
+                Codebook codebook = codebooks[c] != null ? codebooks[c] : shared;
+                if (codebook == null)
+                    continue;
+                for (int s = 0; s < codebook.size(); s++) {
+                    codeBits[c << 8 | s] = codebook.getCodeBits(s);
+                    codeLen[c << 8 | s] = (byte) codebook.getCodeLength(s);
+                }
+            }
+
+            byte[] bytes = new byte[1 << 16];
+            int previous = 0, n;
+            long read = 0;
+            while ((n = in.read(bytes)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    int b = bytes[i] & 0xFF;
+                    int index = previous << 8 | b;
+                    // A pair the counting pass never saw has no code
+                    if (codeLen[index] == 0)
+                        throw new IOException(inputFile + " changed while it was being encoded");
+                    out.writeBits(codeBits[index], codeLen[index]);
+                    previous = b;
+                }
+                read += n;
+            }
+            if (read != length)
+                throw new IOException(inputFile + " changed while it was being encoded");
+            out.flush();
+        }
+    }
+
+    /**
+     * Decodes a file written by encode
+     *
+     * @param encodedFile The file to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        try (InputStream file = new FileInputStream(encodedFile);
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(decodedFile), 1 << 16)) {
+            BitInputStream in = new BitInputStream(file);
+            if (in.readBits(32) != MAGIC)
+                throw new IOException("Not an order-1 huffman file");
+            int version = (int) in.readBits(8);
+            if (version != VERSION)
+                throw new IOException("Unsupported order-1 huffman file version " + version);
+            long length = HuffmanHeader.readVarint(in);
+
+            Codebook[] codebooks = new Codebook[CONTEXTS];
+            long own = HuffmanHeader.readVarint(in);
+            if (own > CONTEXTS)
+                throw new IOException("Corrupt order-1 huffman file header");
+            for (int i = 0; i < own; i++)
+                codebooks[(int) in.readBits(8)] = HuffmanHeader.readLengths(in);
+            TableDecoder shared = in.readBits(8) != 0 ? HuffmanHeader.readLengths(in).getDecoder() : null;
+
+            TableDecoder[] decoders = new TableDecoder[CONTEXTS];
+            for (int c = 0; c < CONTEXTS; c++)
+                decoders[c] = codebooks[c] != null ? codebooks[c].getDecoder() : shared;
+
+            byte[] bytes = new byte[1 << 16];
+            int previous = 0;
+            for (long done = 0; done < length;) {
+                int n = (int) Math.min(bytes.length, length - done);
+                for (int i = 0; i < n; i++) {
+                    TableDecoder decoder = decoders[previous];
+                    if (decoder == null)
+                        throw new IOException("Corrupt order-1 huffman file, no codebook for context " + previous);
+                    if (!in.hasMoreBits())
+                        throw new IOException("Corrupt order-1 huffman file, it ends after " + (done + i) + " of "
+                                + length + " bytes");
+                    previous = decoder.decodeSymbol(in);
+                    bytes[i] = (byte) previous;
+                }
+                out.write(bytes, 0, n);
+                done += n;
+            }
+        }
+    }
+
+    // Counts every pair of previous and current byte, returning the length
+    private static long count(String inputFile, long[][] counts) throws IOException {
+        try (InputStream in = new FileInputStream(inputFile)) {
+            byte[] bytes = new byte[1 << 16];
+            long length = 0;
+            int previous = 0, n;
+            while ((n = in.read(bytes)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    int b = bytes[i] & 0xFF;
+                    counts[previous][b]++;
+                    previous = b;
+                }
+                length += n;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Decides which contexts get their own codebook, filling those into
+     * codebooks and returning the codebook the rest share, or null if every
+     * used context has its own
+     */
+    private static Codebook chooseCodebooks(long[][] counts, Codebook[] codebooks) throws IOException {
+        TreeBuilder builder = new TreeBuilder(CONTEXTS);
+        long[] total = new long[CONTEXTS];
+        for (long[] context : counts) {
+            for (int s = 0; s < CONTEXTS; s++)
+                total[s] += context[s];
+        }
+        Codebook order0 = build(builder, total);
+
+        // Price every context against the order-0 codebook, which is close to
+        // what the shared codebook will end up being
+        long[] pooled = new long[CONTEXTS];
+        boolean anyShared = false;
+        for (int c = 0; c < CONTEXTS; c++) {
+            long[] context = counts[c];
+            if (!used(context))
+                continue;
+            Codebook own = build(builder, context);
+            long ownBits = 8 + lengthsBits(own) + encodedBits(context, own);
+            if (ownBits < encodedBits(context, order0)) {
+                codebooks[c] = own;
+            } else {
+                for (int s = 0; s < CONTEXTS; s++)
+                    pooled[s] += context[s];
+                anyShared = true;
+            }
+        }
+        return anyShared ? build(builder, pooled) : null;
+    }
+
+    private static Codebook build(TreeBuilder builder, long[] counts) {
+        byte[] lengths = new byte[CONTEXTS];
+        builder.build(counts);
+        builder.codeLengths(lengths);
+        return new Codebook(lengths);
+    }
+
+    private static boolean used(long[] counts) {
+        for (long count : counts) {
+            if (count > 0)
+                return true;
+        }
+        return false;
+    }
+
+    private static long encodedBits(long[] counts, Codebook codebook) {
+        long bits = 0;
+        for (int s = 0; s < counts.length; s++)
+            bits += counts[s] * codebook.getCodeLength(s);
+        return bits;
+    }
+
+    // The number of bits HuffmanHeader.writeLengths takes for a codebook
+    private static long lengthsBits(Codebook codebook) throws IOException {
+        BitOutputStream out = new BitOutputStream(OutputStream.nullOutputStream());
+        HuffmanHeader.writeLengths(out, codebook);
+        return out.getBitCount();
+    }
+}
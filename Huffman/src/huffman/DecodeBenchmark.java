@@ -0,0 +1,110 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * This class times the table decoder against walking the huffman coding tree
+ * one bit at a time. It runs over input1.txt through input6.txt, and then over
+ * synthetic files whose sizes in megabytes are given as arguments
+ * (for example "java huffman.DecodeBenchmark 256 4096").
+ *
+ * Decoded characters go to a writer which discards them, so only decoding is
+ * timed.
+ */
+public class DecodeBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-24s %12s %12s %12s %8s\n", "input", "bytes", "tree MB/s", "table MB/s", "speedup");
+
+        for (String input : Benchmarks.inputs()) {
+            TreeNode root = HuffmanCoding.makeTree(HuffmanCoding.makeSortedList(input));
+            run(input, input, new File(input).length(), root);
+        }
+
+        for (String arg : args) {
+            long megabytes = Long.parseLong(arg);
+            File text = File.createTempFile("huffman-bench", ".txt");
+            text.deleteOnExit();
+            TreeNode root = writeSynthetic(text, megabytes << 20);
+            run(megabytes + " MB synthetic", text.getPath(), text.length(), root);
+            text.delete();
+        }
+    }
+
+    private static void run(String name, String textFile, long textBytes, TreeNode root) throws IOException {
+        File encoded = File.createTempFile("huffman-bench", ".enc");
+        encoded.deleteOnExit();
+        HuffmanCoding.encodeFromArray(HuffmanCoding.makeEncodings(root), textFile, encoded.getPath());
+
+        TableDecoder decoder = new TableDecoder(root);
+        long treeNanos = Benchmarks.best(ROUNDS, () -> treeWalk(encoded, root));
+        long tableNanos = Benchmarks.best(ROUNDS, () -> {
+            BitInputStream in = new BitInputStream(new FileInputStream(encoded));
+            HuffmanCoding.skipPadding(in);
+            decoder.decode(in, Writer.nullWriter());
+            in.close();
+        });
+        encoded.delete();
+
+        System.err.printf("%-24s %12d %12.1f %12.1f %7.2fx\n", name, textBytes, Benchmarks.rate(textBytes, treeNanos),
+                Benchmarks.rate(textBytes, tableNanos), (double) treeNanos / tableNanos);
+    }
+
+    // The bit at a time decoder which the table decoder replaces
+    private static void treeWalk(File encoded, TreeNode root) throws IOException {
+        BitInputStream in = new BitInputStream(new FileInputStream(encoded));
+        Writer out = Writer.nullWriter();
+        HuffmanCoding.skipPadding(in);
+
+        TreeNode temp = root;
+        int bit;
+        while ((bit = in.readBit()) != -1) {
+            temp = bit == 0 ? temp.getLeft() : temp.getRight();
+            if (temp.getLeft() == null && temp.getRight() == null) {
+                out.write(temp.getData().getCharacter());
+                temp = root;
+            }
+        }
+        in.close();
+    }
+
+    /**
+     * Writes printable ASCII text with a Zipf-like character distribution, and
+     * returns the huffman coding tree for that distribution. The tree comes
+     * from the known weights, so large files do not need a counting pass.
+     */
+    private static TreeNode writeSynthetic(File file, long bytes) throws IOException {
+        byte[] sampler = Benchmarks.charSampler(true);
+        int[] counts = new int[128];
+        for (byte c : sampler)
+            counts[c]++;
+        ArrayList<CharFreq> list = new ArrayList<CharFreq>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0)
+                list.add(new CharFreq((char) i, (double) counts[i] / sampler.length));
+        }
+        Collections.sort(list);
+
+        Random random = new Random(42);
+        byte[] chunk = new byte[1 << 16];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        for (long written = 0; written < bytes; written += chunk.length) {
+            for (int i = 0; i < chunk.length; i++)
+                chunk[i] = sampler[random.nextInt(sampler.length)];
+            out.write(chunk, 0, (int) Math.min(chunk.length, bytes - written));
+        }
+        out.close();
+
+        return HuffmanCoding.makeTree(list);
+    }
+}
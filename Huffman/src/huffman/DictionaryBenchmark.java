@@ -0,0 +1,68 @@
+package huffman;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class trains a HuffmanDictionary on the first half of the lines of a
+ * file and reports how small the lines of the second half become, each
+ * encoded on its own, and how long a record takes to round trip. It runs over
+ * input1.txt through input6.txt and any other files given as arguments.
+ */
+public class DictionaryBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %8s %10s %10s %8s %12s\n", "input", "records", "bytes", "encoded", "size",
+                "ns/record");
+        for (String input : Benchmarks.inputs(args)) {
+            ArrayList<byte[]> lines = readLines(input);
+            int half = lines.size() / 2;
+            if (half == 0)
+                continue;
+            HuffmanDictionary dictionary = HuffmanDictionary.train(1, lines.subList(0, half));
+            List<byte[]> records = lines.subList(half, lines.size());
+
+            byte[] buffer = new byte[1 << 16];
+            byte[] back = new byte[1 << 16];
+            long original = 0, encoded = 0;
+            for (byte[] record : records) {
+                if (dictionary.maxEncodedLength(record.length) > buffer.length)
+                    continue;
+                int n = dictionary.encode(record, 0, record.length, buffer, 0);
+                if (dictionary.decode(buffer, 0, n, back, 0, back.length) != record.length)
+                    throw new IllegalStateException("A record of " + input + " did not round trip");
+                original += record.length;
+                encoded += n;
+            }
+
+            long nanos = Benchmarks.best(ROUNDS, () -> {
+                for (byte[] record : records) {
+                    if (dictionary.maxEncodedLength(record.length) > buffer.length)
+                        continue;
+                    int n = dictionary.encode(record, 0, record.length, buffer, 0);
+                    dictionary.decode(buffer, 0, n, back, 0, back.length);
+                }
+            });
+            System.err.printf("%-20s %8d %10d %10d %7.1f%% %12.0f\n", new File(input).getName(), records.size(),
+                    original, encoded, 100.0 * encoded / Math.max(original, 1), (double) nanos / records.size());
+        }
+    }
+
+    private static ArrayList<byte[]> readLines(String file) throws IOException {
+        ArrayList<byte[]> lines = new ArrayList<byte[]>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+}
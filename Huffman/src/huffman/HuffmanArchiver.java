@@ -0,0 +1,589 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * This class compresses many files at once into a single archive, and pulls
+ * single members back out of it. Files are read and written on a pool of I/O
+ * threads and encoded on a separate pool with one thread per core, so slow
+ * disks and busy CPUs do not hold each other up. Files up to LARGE_FILE bytes
+ * are read and encoded whole, with at most BUFFER_BUDGET bytes of them and
+ * their encodings in memory at once. Larger files are encoded a frame at a
+ * time into a spill file next to the archive, which is then copied in, so no
+ * file is ever too big to archive and none holds up the others while it is
+ * being encoded.
+ *
+ * Each member is stored as a HuffmanOutputStream stream, and a central
+ * directory at the end of the archive says where every member is, so one
+ * member can be extracted without decoding any of the others:
+ *
+ * <pre>
+ * header      32-bit magic "HUFA", 8-bit version
+ * members     each member's HuffmanOutputStream frames, in the order they
+ *             finished
+ * directory   32-bit member count, then for each member its name, 64-bit
+ *             offset, 64-bit compressed length, 64-bit original length and
+ *             32-bit CRC-32 of the original bytes
+ * trailer     64-bit offset of the directory, 32-bit magic
+ * </pre>
+ */
+public class HuffmanArchiver {
+    public static final int MAGIC = 0x48554641;
+    public static final int VERSION = 1;
+    public static final int LARGE_FILE = 8 << 20;
+    public static final int BUFFER_BUDGET = 64 << 20;
+
+    // What streaming a large file holds in memory: a frame, its encoding,
+    // and the read and write buffers
+    private static final int STREAM_COST = 2 * HuffmanOutputStream.DEFAULT_FRAME_SIZE + (1 << 17);
+
+    /**
+     * Where a member is in an archive and how big it is
+     */
+    public static class Entry {
+        private final String name;
+        private final long offset;
+        private final long compressedLength;
+        private final long length;
+        private final int crc;
+
+        Entry(String name, long offset, long compressedLength, long length, int crc) {
+            this.name = name;
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCompressedLength() {
+            return compressedLength;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * Throughput and per-file latency of one archive run
+     */
+    public static class Report {
+        private final int files;
+        private final long bytesIn, bytesOut, nanos;
+        private final long[] latencies;
+
+        Report(int files, long bytesIn, long bytesOut, long nanos, long[] latencies) {
+            this.files = files;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.nanos = nanos;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+        }
+
+        public int getFiles() {
+            return files;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public double getMegabytesPerSecond() {
+            return bytesIn / (1024.0 * 1024.0) / (nanos / 1e9);
+        }
+
+        /**
+         * @param percentile Between 0 and 100
+         * @return The time from starting to read a file until its member was
+         *         written, in milliseconds, which that share of files beat
+         */
+        public double getLatencyMillis(double percentile) {
+            if (latencies.length == 0)
+                return 0;
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files, %d -> %d bytes (%.1f%%), %.1f MB/s, latency p50 %.2f ms, "
+                    + "p95 %.2f ms, p99 %.2f ms, max %.2f ms", files, bytesIn, bytesOut,
+                    100.0 * bytesOut / Math.max(bytesIn, 1), getMegabytesPerSecond(), getLatencyMillis(50),
+                    getLatencyMillis(95), getLatencyMillis(99), getLatencyMillis(100));
+        }
+    }
+
+    /**
+     * Archives every regular file under a directory, naming each member by its
+     * path relative to the directory
+     *
+     * @param archive   The archive to create
+     * @param directory The directory tree to archive
+     * @return The run's throughput and latency
+     */
+    public static Report create(String archive, String directory) throws IOException {
+        Path base = Paths.get(directory);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(base)) {
+            files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        List<String> names = new ArrayList<String>();
+        for (Path file : files)
+            names.add(base.relativize(file).toString().replace('\\', '/'));
+        int cores = Runtime.getRuntime().availableProcessors();
+        return create(archive, files, names, 4 * cores, cores);
+    }
+
+    /**
+     * Archives a list of files
+     *
+     * @param archive    The archive to create
+     * @param files      The files to archive
+     * @param names      The member name for each file
+     * @param ioThreads  The number of threads reading and writing files
+     * @param cpuThreads The number of threads encoding
+     * @return The run's throughput and latency
+     */
+    public static Report create(String archive, List<Path> files, List<String> names, int ioThreads,
+            int cpuThreads) throws IOException {
+        if (files.size() != names.size())
+            throw new IllegalArgumentException("Every file needs a name");
+
+        // Java 17 has no virtual threads, so blocking file I/O gets its own
+        // fixed pool of platform threads instead
+        ExecutorService io = Executors.newFixedThreadPool(ioThreads);
+        ExecutorService cpu = Executors.newFixedThreadPool(cpuThreads);
+        // Permits are bytes of file data and encodings held in memory
+        Semaphore inFlight = new Semaphore(BUFFER_BUDGET);
+        FileChannel out = FileChannel.open(Paths.get(archive), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Path spillDirectory = Paths.get(archive).toAbsolutePath().getParent();
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        long[] latencies = new long[files.size()];
+        long start = System.nanoTime();
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(5).putInt(MAGIC).put((byte) VERSION);
+            writeFully(out, header.flip());
+
+            ArrayList<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>();
+            for (int i = 0; i < files.size(); i++) {
+                int index = i;
+                Path file = files.get(i);
+                String name = names.get(i);
+                long size = Files.size(file);
+                CompletableFuture<Void> task;
+                int cost;
+                if (size > LARGE_FILE) {
+                    cost = STREAM_COST;
+                    inFlight.acquireUninterruptibly(cost);
+                    task = CompletableFuture.runAsync(() -> latencies[index] = stream(out, entries, name, file, spillDirectory),
+                            cpu);
+                } else {
+                    // The file and its encoding, which is never much bigger
+                    cost = (int) (2 * size + 4096);
+                    inFlight.acquireUninterruptibly(cost);
+                    task = CompletableFuture.supplyAsync(() -> read(file), io)
+                            .thenApplyAsync(HuffmanArchiver::compress, cpu)
+                            .thenAcceptAsync(member -> {
+                                append(out, entries, name, member);
+                                latencies[index] = System.nanoTime() - member.started;
+                            }, io);
+                }
+                pending.add(task.whenComplete((result, failure) -> inFlight.release(cost)));
+            }
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+
+            writeDirectory(out, entries);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException)
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            throw e;
+        } finally {
+            // After a failure other members may still be on their way, and
+            // must not find the archive closed under them
+            io.shutdown();
+            cpu.shutdown();
+            awaitTermination(io);
+            awaitTermination(cpu);
+            out.close();
+        }
+
+        long bytesIn = 0;
+        for (Entry entry : entries)
+            bytesIn += entry.length;
+        return new Report(files.size(), bytesIn, Files.size(Paths.get(archive)), System.nanoTime() - start,
+                latencies);
+    }
+
+    private static void awaitTermination(ExecutorService pool) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    // A file's bytes and CRC, ready to encode, and when reading it started
+    private static class Member {
+        final byte[] data;
+        final long length;
+        final int crc;
+        final long started;
+
+        Member(byte[] data, long length, int crc, long started) {
+            this.data = data;
+            this.length = length;
+            this.crc = crc;
+            this.started = started;
+        }
+    }
+
+    private static Member read(Path file) {
+        try {
+            long started = System.nanoTime();
+            byte[] data = Files.readAllBytes(file);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            return new Member(data, data.length, (int) crc.getValue(), started);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Member compress(Member member) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(member.data.length / 2 + 64);
+            HuffmanOutputStream out = new HuffmanOutputStream(bytes);
+            out.write(member.data);
+            out.close();
+            return new Member(bytes.toByteArray(), member.length, member.crc, member.started);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Writes a compressed member at the end of the archive
+    private static void append(FileChannel out, ArrayList<Entry> entries, String name, Member member) {
+        try {
+            synchronized (entries) {
+                long offset = out.size();
+                writeFully(out, ByteBuffer.wrap(member.data));
+                entries.add(new Entry(name, offset, member.data.length, member.length, member.crc));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a large file into a spill file without holding the archive, then
+     * copies the encoding onto the end of the archive
+     *
+     * @return The time taken in nanoseconds
+     */
+    private static long stream(FileChannel out, ArrayList<Entry> entries, String name, Path file,
+            Path spillDirectory) {
+        try {
+            long started = System.nanoTime();
+            Path spillFile = Files.createTempFile(spillDirectory, "huffman-archive", ".spill");
+            try (FileChannel spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE)) {
+                ChannelOutputStream channel = new ChannelOutputStream(spill, 0);
+                CRC32 crc = new CRC32();
+                long length = 0;
+                try (InputStream in = Files.newInputStream(file);
+                        HuffmanOutputStream huffman = new HuffmanOutputStream(
+                                new BufferedOutputStream(channel, 1 << 16))) {
+                    byte[] buffer = new byte[1 << 16];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        huffman.write(buffer, 0, n);
+                        crc.update(buffer, 0, n);
+                        length += n;
+                    }
+                }
+                long compressedLength = channel.position;
+                synchronized (entries) {
+                    long offset = out.size();
+                    out.position(offset);
+                    for (long copied = 0; copied < compressedLength;)
+                        copied += spill.transferTo(copied, compressedLength - copied, out);
+                    entries.add(new Entry(name, offset, compressedLength, length, (int) crc.getValue()));
+                }
+            }
+            return System.nanoTime() - started;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeDirectory(FileChannel out, ArrayList<Entry> entries) throws IOException {
+        Collections.sort(entries, (a, b) -> a.name.compareTo(b.name));
+        long directoryOffset = out.size();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream directory = new DataOutputStream(bytes);
+        directory.writeInt(entries.size());
+        for (Entry entry : entries) {
+            directory.writeUTF(entry.name);
+            directory.writeLong(entry.offset);
+            directory.writeLong(entry.compressedLength);
+            directory.writeLong(entry.length);
+            directory.writeInt(entry.crc);
+        }
+        directory.writeLong(directoryOffset);
+        directory.writeInt(MAGIC);
+        writeFully(out, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            out.write(buffer, out.size());
+    }
+
+    /**
+     * Reads an archive's central directory
+     *
+     * @param archive The archive
+     * @return Every member, sorted by name
+     */
+    public static List<Entry> list(String archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(archive), StandardOpenOption.READ)) {
+            return readDirectory(channel);
+        }
+    }
+
+    private static List<Entry> readDirectory(FileChannel channel) throws IOException {
+        if (channel.size() < 5 + 4 + 12)
+            throw new IOException("Not a huffman archive");
+        ByteBuffer trailer = ByteBuffer.allocate(12);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, channel.size() - 12 + trailer.position()) < 0)
+                throw new IOException("Huffman archive ended early");
+        }
+        trailer.flip();
+        long directoryOffset = trailer.getLong();
+        if (trailer.getInt() != MAGIC || directoryOffset < 5 || directoryOffset > channel.size() - 12)
+            throw new IOException("Not a huffman archive");
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new BoundedInputStream(channel, directoryOffset, channel.size() - 12)));
+        int count = in.readInt();
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            entries.add(new Entry(name, in.readLong(), in.readLong(), in.readLong(), in.readInt()));
+        }
+        return entries;
+    }
+
+    /**
+     * Extracts one member, decoding only that member
+     *
+     * @param archive The archive
+     * @param member  The member's name
+     * @param dest    The file to extract it to
+     */
+    public static void extract(String archive, String member, String dest) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(archive), StandardOpenOption.READ)) {
+            for (Entry entry : readDirectory(channel)) {
+                if (entry.name.equals(member)) {
+                    extract(channel, entry, Paths.get(dest));
+                    return;
+                }
+            }
+        }
+        throw new IOException("No member " + member + " in " + archive);
+    }
+
+    /**
+     * Extracts every member under a directory
+     *
+     * @param archive   The archive
+     * @param directory The directory to extract into
+     */
+    public static void extractAll(String archive, String directory) throws IOException {
+        Path base = Paths.get(directory).toAbsolutePath().normalize();
+        try (FileChannel channel = FileChannel.open(Paths.get(archive), StandardOpenOption.READ)) {
+            for (Entry entry : readDirectory(channel)) {
+                Path dest = base.resolve(entry.name).normalize();
+                if (!dest.startsWith(base))
+                    throw new IOException("Member " + entry.name + " would land outside of " + directory);
+                if (dest.getParent() != null)
+                    Files.createDirectories(dest.getParent());
+                extract(channel, entry, dest);
+            }
+        }
+    }
+
+    private static void extract(FileChannel channel, Entry entry, Path dest) throws IOException {
+        CRC32 crc = new CRC32();
+        long length = 0;
+        try (InputStream in = new HuffmanInputStream(new BufferedInputStream(
+                new BoundedInputStream(channel, entry.offset, entry.offset + entry.compressedLength), 1 << 16));
+                OutputStream out = new FileOutputStream(dest.toFile())) {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                crc.update(buffer, 0, n);
+                length += n;
+            }
+        }
+        if (length != entry.length || (int) crc.getValue() != entry.crc)
+            throw new IOException("Member " + entry.name + " is corrupt");
+    }
+
+    /**
+     * Reads a range of a channel with positional reads, so that several can
+     * share one channel
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        BoundedInputStream(FileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == 1 ? one[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end)
+                return -1;
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (n < 0)
+                return -1;
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * Writes to a channel from a position with positional writes, leaving the
+     * channel open when closed
+     */
+    private static class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private long position;
+
+        ChannelOutputStream(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining())
+                position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Runs the archiver from the command line:
+     *
+     * <pre>
+     * create archive directory      archives a directory tree
+     * create archive file...        archives a list of files
+     * list archive                  lists the members
+     * extract archive member dest   extracts one member
+     * extractall archive directory  extracts every member
+     * </pre>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: create archive (directory | file...), list archive, "
+                    + "extract archive member dest, extractall archive directory");
+            return;
+        }
+        switch (args[0]) {
+            case "create": {
+                Report report;
+                if (args.length == 3 && Files.isDirectory(Paths.get(args[2]))) {
+                    report = create(args[1], args[2]);
+                } else {
+                    List<Path> files = new ArrayList<Path>();
+                    List<String> names = new ArrayList<String>();
+                    for (int i = 2; i < args.length; i++) {
+                        files.add(Paths.get(args[i]));
+                        names.add(args[i]);
+                    }
+                    int cores = Runtime.getRuntime().availableProcessors();
+                    report = create(args[1], files, names, 4 * cores, cores);
+                }
+                System.err.println(report);
+                break;
+            }
+            case "list":
+                for (Entry entry : list(args[1]))
+                    System.err.printf("%12d %12d  %s\n", entry.getLength(), entry.getCompressedLength(),
+                            entry.getName());
+                break;
+            case "extract":
+                extract(args[1], args[2], args[3]);
+                break;
+            case "extractall":
+                extractAll(args[1], args[2]);
+                break;
+            default:
+                System.err.println("Unknown command " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package huffman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * This class adapts HuffmanOutputStream and HuffmanInputStream to NIO
+ * channels. The channels use the same framed format as the streams, so a
+ * stream can read what a channel wrote and the other way around.
+ */
+public class HuffmanChannels {
+    private HuffmanChannels() {
+    }
+
+    /**
+     * @param channel The channel to write compressed frames to
+     * @return A channel which compresses everything written to it
+     */
+    public static WritableByteChannel newEncoder(WritableByteChannel channel) {
+        return new Encoder(new HuffmanOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * @param channel   The channel to write compressed frames to
+     * @param frameSize The most input bytes coded with one codebook
+     * @return A channel which compresses everything written to it
+     */
+    public static WritableByteChannel newEncoder(WritableByteChannel channel, int frameSize) {
+        return new Encoder(new HuffmanOutputStream(Channels.newOutputStream(channel), frameSize));
+    }
+
+    /**
+     * @param channel The channel of compressed frames to read from
+     * @return A channel which reads the decompressed bytes
+     */
+    public static ReadableByteChannel newDecoder(ReadableByteChannel channel) {
+        return new Decoder(new HuffmanInputStream(Channels.newInputStream(channel)));
+    }
+
+    private static class Encoder implements WritableByteChannel {
+        private final HuffmanOutputStream out;
+        private byte[] copy;
+        private boolean open = true;
+
+        Encoder(HuffmanOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open)
+                throw new ClosedChannelException();
+            int written = src.remaining();
+            if (src.hasArray()) {
+                out.write(src.array(), src.arrayOffset() + src.position(), written);
+                src.position(src.limit());
+            } else {
+                // Direct buffers have to be copied out a piece at a time
+                if (copy == null)
+                    copy = new byte[1 << 13];
+                while (src.hasRemaining()) {
+                    int n = Math.min(copy.length, src.remaining());
+                    src.get(copy, 0, n);
+                    out.write(copy, 0, n);
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                out.close();
+            }
+        }
+    }
+
+    private static class Decoder implements ReadableByteChannel {
+        private final HuffmanInputStream in;
+        private byte[] copy;
+        private boolean open = true;
+
+        Decoder(HuffmanInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open)
+                throw new ClosedChannelException();
+            if (!dst.hasRemaining())
+                return 0;
+            if (dst.hasArray()) {
+                int n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+                if (n > 0)
+                    dst.position(dst.position() + n);
+                return n;
+            }
+            if (copy == null)
+                copy = new byte[1 << 13];
+            int n = in.read(copy, 0, Math.min(copy.length, dst.remaining()));
+            if (n > 0)
+                dst.put(copy, 0, n);
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                in.close();
+            }
+        }
+    }
+}
@@ -1,8 +1,17 @@
 package huffman;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 
@@ -22,45 +31,25 @@ public class HuffmanCoding {
      * @param bitString The string of 1's and 0's to write to the file in bits
      */
     public static void writeBitString(String filename, String bitString) {
-        byte[] bytes = new byte[bitString.length() / 8 + 1];
-        int bytesIndex = 0, byteIndex = 0, currentByte = 0;
-
-        // Pad the string with initial zeroes and then a one in order to bring
-        // its length to a multiple of 8. When reading, the 1 signifies the
-        // end of padding.
-        int padding = 8 - (bitString.length() % 8);
-        String pad = "";
-        for (int i = 0; i < padding - 1; i++)
-            pad = pad + "0";
-        pad = pad + "1";
-        bitString = pad + bitString;
-
-        // For every bit, add it to the right spot in the corresponding byte,
-        // and store bytes in the array when finished
-        for (char c : bitString.toCharArray()) {
-            if (c != '1' && c != '0') {
-                System.out.println("Invalid characters in bitstring");
-                System.exit(1);
-            }
+        try {
+            BitOutputStream out = new BitOutputStream(new FileOutputStream(filename));
 
-            if (c == '1')
-                currentByte += 1 << (7 - byteIndex);
-            byteIndex++;
+            // Pad the string with initial zeroes and then a one in order to bring
+            // its length to a multiple of 8. When reading, the 1 signifies the
+            // end of padding.
+            writePadding(out, bitString.length());
 
-            if (byteIndex == 8) {
-                bytes[bytesIndex] = (byte) currentByte;
-                bytesIndex++;
-                currentByte = 0;
-                byteIndex = 0;
+            // For every bit, hand it to the bit writer which packs it into bytes
+            for (int i = 0; i < bitString.length(); i++) {
+                char c = bitString.charAt(i);
+                if (c != '1' && c != '0') {
+                    System.out.println("Invalid characters in bitstring");
+                    System.exit(1);
+                }
+                out.writeBit(c == '1' ? 1 : 0);
             }
-        }
-
-        // Write the array of bytes to the provided file
-        try {
-            FileOutputStream out = new FileOutputStream(filename);
-            out.write(bytes);
             out.close();
-        } catch (Exception e) {
+        } catch (IOException e) {
             System.err.println("Error when writing to file!");
         }
     }
@@ -73,36 +62,51 @@ public class HuffmanCoding {
      * @return String of 1's and 0's representing the bits in the file
      */
     public static String readBitString(String filename) {
-        String bitString = "";
+        StringBuilder bitString = new StringBuilder();
 
         try {
-            FileInputStream in = new FileInputStream(filename);
-            File file = new File(filename);
+            BitInputStream in = new BitInputStream(new FileInputStream(filename));
 
-            byte bytes[] = new byte[(int) file.length()];
-            in.read(bytes);
+            // Skip the padding up to and including the first 1, then copy out
+            // every remaining bit
+            skipPadding(in);
+            int bit;
+            while ((bit = in.readBit()) != -1)
+                bitString.append(bit == 1 ? '1' : '0');
             in.close();
 
-            // For each byte read, convert it to a binary string of length 8 and add it
-            // to the bit string
-            for (byte b : bytes) {
-                bitString = bitString + String.format("%8s", Integer.toBinaryString(b & 0xFF)).replace(' ', '0');
-            }
-
-            // Detect the first 1 signifying the end of padding, then remove the first few
-            // characters, including the 1
-            for (int i = 0; i < 8; i++) {
-                if (bitString.charAt(i) == '1')
-                    return bitString.substring(i + 1);
-            }
-
-            return bitString.substring(8);
-        } catch (Exception e) {
+            return bitString.toString();
+        } catch (IOException e) {
             System.out.println("Error while reading file!");
             return "";
         }
     }
 
+    /**
+     * Writes the padding which precedes an encoded bit string of the given
+     * length: zeroes followed by a 1, bringing the total to a multiple of 8
+     * 
+     * @param out       The bit writer to write the padding to
+     * @param bitLength The number of encoded bits which will follow
+     */
+    static void writePadding(BitOutputStream out, long bitLength) throws IOException {
+        int padding = 8 - (int) (bitLength % 8);
+        out.writeBits(1, padding);
+    }
+
+    /**
+     * Skips the zeroes and the terminating 1 at the start of an encoded file.
+     * Like the original bit string reader, at most one byte is skipped.
+     * 
+     * @param in The bit reader positioned at the start of the file
+     */
+    static void skipPadding(BitInputStream in) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            if (in.readBit() != 0)
+                return;
+        }
+    }
+
     /**
      * Reads a given text file character by character, and returns an arraylist of
      * CharFreq objects with frequency > 0, sorted by frequency
@@ -111,18 +115,63 @@ public class HuffmanCoding {
      * @return Arraylist of CharFreq objects, sorted by frequency
      */
     public static ArrayList<CharFreq> makeSortedList(String filename) {
-        StdIn.setFile(filename);
-        /* Your code goes here */
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.COUNT, filename);
+            long[] charOcc = countChars(filename);
+            stage.end(filename, null, sum(charOcc));
+            return makeSortedList(charOcc);
+        } catch (IOException e) {
+            System.err.println("Error while reading file!");
+            return new ArrayList<CharFreq>();
+        }
+    }
+
+    /**
+     * Counts how often each character occurs in a UTF-8 text file. ASCII files,
+     * where every byte is one character, are counted by ParallelHistogram over
+     * the memory-mapped file. Other files fall back to reading character by
+     * character.
+     * 
+     * @param filename The text file to read from
+     * @return Array indexed by character, holding how often each occurs
+     */
+    public static long[] countChars(String filename) throws IOException {
+        long[] byteOcc = ParallelHistogram.countBytes(filename);
+        boolean ascii = true;
+        for (int i = 128; i < 256; i++) {
+            if (byteOcc[i] > 0)
+                ascii = false;
+        }
+        if (ascii)
+            return byteOcc;
+
+        long[] charOcc = new long[65536];
+        Reader reader = openText(filename);
+        char[] chars = new char[1 << 16];
+        int read;
+        while ((read = reader.read(chars)) > 0) {
+            for (int i = 0; i < read; i++)
+                charOcc[chars[i]]++;
+        }
+        reader.close();
+        return charOcc;
+    }
+
+    /**
+     * Turns a table of character counts into an arraylist of CharFreq objects
+     * with frequency > 0, sorted by frequency
+     * 
+     * @param charOcc Array indexed by character, holding how often each occurs
+     * @return Arraylist of CharFreq objects, sorted by frequency
+     */
+    public static ArrayList<CharFreq> makeSortedList(long[] charOcc) {
         ArrayList<CharFreq> arr = new ArrayList<CharFreq>();
-        int[] charOcc = new int[128];
         CharFreq newChar;
         double total = 0;
         int counter = 0;
         int iSave = 0;
-        while (StdIn.hasNextChar()) {
-            charOcc[StdIn.readChar()]++;
-            total++;
-        }
+        for (long occ : charOcc)
+            total += occ;
         for (int i = 0; i < charOcc.length; i++) {
             if (charOcc[i] > 0) {
                 newChar = new CharFreq((char) i, charOcc[i] / total);
@@ -131,17 +180,19 @@ public class HuffmanCoding {
                 iSave = i;
             }
         }
+        // A tree needs at least two leaves, so pair a lone character with a
+        // neighbour which never occurs
         if (counter == 1) {
-            CharFreq newChar2 = new CharFreq((char) (iSave + 1), 0);
+            CharFreq newChar2 = new CharFreq((char) (iSave + 1 < 65536 ? iSave + 1 : iSave - 1), 0);
             arr.add(newChar2);
         }
         Collections.sort(arr);
         return arr;
-        // ADD THE EDGE CASE OF IF THERES ONLY ONE
     }
 
     public static TreeNode makeTree(ArrayList<CharFreq> sortedList) {
         /* Your code goes here */
+        HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.BUILD, null);
         Queue<CharFreq> source = new Queue<CharFreq>();
         Queue<TreeNode> target = new Queue<TreeNode>();
         for (int i = 0; i < sortedList.size(); i++)
@@ -154,8 +205,74 @@ public class HuffmanCoding {
                     newNode1, newNode2);
             target.enqueue(newNode3);
         }
-        return target.dequeue();
+        TreeNode root = target.dequeue();
+        stage.tree(sortedList, root);
+        stage.end(0, 0, sortedList.size());
+        return root;
+
+    }
+
+    /**
+     * Builds a huffman coding tree like makeTree, but with no code longer than
+     * maxLength bits. The code lengths come from LengthLimitedCodes, and the
+     * tree is laid out with canonical codes. Leaves hold the CharFreq objects
+     * from the list, and internal nodes hold the sum of their children's
+     * probabilities, so the tree can be used anywhere makeTree's can.
+     * 
+     * @param sortedList Arraylist of CharFreq objects, sorted by frequency
+     * @param maxLength  The longest code allowed
+     * @return The root of the huffman coding tree
+     */
+    public static TreeNode makeTree(ArrayList<CharFreq> sortedList, int maxLength) {
+        double[] weights = new double[sortedList.size()];
+        int maxChar = 0;
+        for (int i = 0; i < weights.length; i++) {
+            // Characters which never occur still need a code, so give them the
+            // smallest weight possible
+            weights[i] = Math.max(sortedList.get(i).getProbOccurrence(), Double.MIN_VALUE);
+            maxChar = Math.max(maxChar, sortedList.get(i).getCharacter());
+        }
+        int[] lengths = LengthLimitedCodes.lengths(weights, maxLength);
+
+        byte[] charLengths = new byte[maxChar + 1];
+        CharFreq[] leaves = new CharFreq[maxChar + 1];
+        for (int i = 0; i < weights.length; i++) {
+            charLengths[sortedList.get(i).getCharacter()] = (byte) lengths[i];
+            leaves[sortedList.get(i).getCharacter()] = sortedList.get(i);
+        }
 
+        Codebook codebook = new Codebook(charLengths);
+        TreeNode root = new TreeNode(new CharFreq(null, 0), null, null);
+        for (int c = 0; c <= maxChar; c++) {
+            if (leaves[c] == null)
+                continue;
+            TreeNode node = root;
+            for (int bit = codebook.getCodeLength(c) - 1; bit >= 0; bit--) {
+                boolean right = ((codebook.getCodeBits(c) >>> bit) & 1) == 1;
+                TreeNode next = right ? node.getRight() : node.getLeft();
+                if (next == null) {
+                    next = new TreeNode(bit == 0 ? leaves[c] : new CharFreq(null, 0), null, null);
+                    if (right)
+                        node.setRight(next);
+                    else
+                        node.setLeft(next);
+                }
+                node = next;
+            }
+        }
+        sumProbabilities(root);
+        return root;
+    }
+
+    // Fills in each internal node's probability from its children
+    private static double sumProbabilities(TreeNode node) {
+        if (node == null)
+            return 0;
+        if (node.getLeft() == null && node.getRight() == null)
+            return node.getData().getProbOccurrence();
+        double sum = sumProbabilities(node.getLeft()) + sumProbabilities(node.getRight());
+        node.getData().setProbOccurrence(sum);
+        return sum;
     }
 
     private static TreeNode recHelp(Queue<CharFreq> source, Queue<TreeNode> target) {
@@ -182,8 +299,9 @@ public class HuffmanCoding {
     }
 
     /**
-     * Uses a given huffman coding tree to create a string array of size 128, where
-     * each index in the array contains that ASCII character's bitstring encoding.
+     * Uses a given huffman coding tree to create a string array of size 128 (or
+     * larger, if the tree holds non-ASCII characters), where each index in the
+     * array contains that character's bitstring encoding.
      * Characters not present in the huffman coding tree should have their spots in
      * the array left null
      * 
@@ -194,7 +312,8 @@ public class HuffmanCoding {
 
     public static String[] makeEncodings(TreeNode root) {
         /* Your code goes here */
-        String[] arr = new String[128];
+        // Make room for characters past ASCII if the tree has any
+        String[] arr = new String[Math.max(128, Codebook.lengthsFromTree(root).length)];
         return makeEncodings(root, "", arr); // Delete this line
     }
     
@@ -215,8 +334,9 @@ public class HuffmanCoding {
 
     /**
      * Using a given string array of encodings, a given text file, and a file name
-     * to encode into, this method makes use of the writeBitString method to write
-     * the final encoding of 1's and 0's to the encoded file.
+     * to encode into, this method streams the final encoding of 1's and 0's to the
+     * encoded file through a BitOutputStream, using the same padding as
+     * writeBitString.
      * 
      * @param encodings   The array containing binary string encodings for each
      *                    ASCII character
@@ -224,45 +344,505 @@ public class HuffmanCoding {
      * @param encodedFile The file name into which the text file is to be encoded
      */
     public static void encodeFromArray(String[] encodings, String textFile, String encodedFile) {
-        StdIn.setFile(textFile);
-        /* Your code goes here */
-        String code = "";
-        while (StdIn.hasNextChar()) {
-            int counter = 0;
-            char nextChar = StdIn.readChar();
-            while (!((int) (nextChar) == counter)) {
-                counter++;
-                if (counter == 129)
-                    counter = 0;
-            }
-            code += encodings[counter];
+        try {
+            // Pack the strings into integer codes once, so that no character
+            // has to look at a string again
+            Codebook codebook = Codebook.fromEncodings(encodings);
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, textFile);
+
+            // The padding goes in front of the bits, so the total encoded length
+            // has to be known first. Work it out from the character counts.
+            long[] charOcc = countChars(textFile);
+            long bitLength = 0;
+            for (int c = 0; c < charOcc.length; c++)
+                bitLength += charOcc[c] * codebook.getCodeLength(c);
+
+            // Read, encode, and write at the same time
+            HuffmanPipeline.encodeText(codebook, textFile, encodedFile, bitLength);
+            stage.end(textFile, encodedFile, sum(charOcc));
+        } catch (IOException e) {
+            System.err.println("Error when writing to file!");
         }
-        writeBitString(encodedFile, code);
     }
 
     /**
-     * Using a given encoded file name and a huffman coding tree, this method makes
-     * use of the readBitString method to convert the file into a bit string, then
-     * decodes the bit string using the tree, and writes it to a file.
+     * Using a given encoded file name and a huffman coding tree, this method maps
+     * the file into memory, decodes it 64 bits at a time using lookup tables
+     * built from the tree, and writes the result to a file.
      * 
      * @param encodedFile The file which contains the encoded text we want to decode
      * @param root        The root of your Huffman Coding tree
      * @param decodedFile The file which you want to decode into
      */
     public static void decode(String encodedFile, TreeNode root, String decodedFile) {
-        StdOut.setFile(decodedFile);
-        String code = readBitString(encodedFile);
-        /* Your code goes here */
-        while (code.length() > 0) {
-            TreeNode temp = root;
-            while (!(temp.getLeft() == null && temp.getRight() == null)) {
-                if (code.substring(0, 1).equals("0"))
-                    temp = temp.getLeft();
-                else
-                    temp = temp.getRight();
-                code = code.substring(1);
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            long length = MappedDecoder.decodeLegacy(encodedFile, new TableDecoder(root), decodedFile);
+            stage.end(encodedFile, decodedFile, length);
+        } catch (IOException e) {
+            System.err.println("Error while decoding file!");
+        }
+    }
+
+    /**
+     * Encodes a text file into a self-describing file, which starts with a
+     * HuffmanHeader holding canonical code lengths. The file can be decoded
+     * later without the huffman coding tree.
+     * 
+     * @param textFile    The text file which is to be encoded
+     * @param encodedFile The file name into which the text file is to be encoded
+     */
+    public static void encode(String textFile, String encodedFile) {
+        try {
+            // Count every character, including ones outside of ASCII
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.COUNT, textFile);
+            long[] charOcc = countChars(textFile);
+            long length = sum(charOcc);
+            stage.end(textFile, null, length);
+
+            stage = HuffmanMetrics.start(HuffmanMetrics.BUILD, textFile);
+            Codebook codebook = makeCodebook(charOcc);
+            stage.codebook(charOcc, codebook);
+            stage.end(0, 0, codebook.size());
+
+            stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, textFile);
+            BitOutputStream out = new BitOutputStream(new FileOutputStream(encodedFile));
+            new HuffmanHeader(HuffmanHeader.MODE_CHARS, length, codebook).write(out);
+            Reader reader = openText(textFile);
+            char[] chars = new char[1 << 16];
+            int n;
+            while ((n = reader.read(chars)) != -1)
+                codebook.encode(out, chars, 0, n);
+            reader.close();
+            out.close();
+            stage.end(textFile, encodedFile, length);
+        } catch (IOException e) {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    /**
+     * Encodes any file byte by byte into a self-describing file. Every one of
+     * the 256 byte values can be encoded, so the input does not have to be
+     * ASCII text.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encodeBytes(String inputFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.COUNT, inputFile);
+            long[] byteOcc = countBytes(inputFile);
+            long length = sum(byteOcc);
+            stage.end(length, 0, length);
+
+            stage = HuffmanMetrics.start(HuffmanMetrics.BUILD, inputFile);
+            Codebook codebook = makeCodebook(byteOcc);
+            stage.codebook(byteOcc, codebook);
+            stage.end(0, 0, codebook.size());
+
+            stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            BitOutputStream out = new BitOutputStream(new FileOutputStream(encodedFile));
+            new HuffmanHeader(HuffmanHeader.MODE_BYTES, length, codebook).write(out);
+            InputStream in = new FileInputStream(inputFile);
+            byte[] bytes = new byte[1 << 16];
+            int n;
+            while ((n = in.read(bytes)) != -1)
+                codebook.encode(out, bytes, 0, n);
+            in.close();
+            out.close();
+            stage.end(length, new File(encodedFile).length(), length);
+        } catch (IOException e) {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    /**
+     * Counts how often each byte value occurs in a file, in parallel over the
+     * memory-mapped file
+     * 
+     * @param filename The file to read from
+     * @return Array of size 256 indexed by byte value
+     */
+    public static long[] countBytes(String filename) throws IOException {
+        return ParallelHistogram.countBytes(filename);
+    }
+
+    /**
+     * Encodes a UTF-8 text file code point by code point into a self-describing
+     * file. The code points are counted in a SparseHistogram, so large
+     * alphabets such as CJK text only pay for the symbols which occur.
+     * 
+     * @param textFile    The text file which is to be encoded
+     * @param encodedFile The file name into which the text file is to be encoded
+     */
+    public static void encodeCodePoints(String textFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.COUNT, textFile);
+            SparseHistogram histogram = new SparseHistogram();
+            long length = 0;
+            CodePointReader reader = new CodePointReader(openText(textFile));
+            int c;
+            while ((c = reader.read()) != -1) {
+                histogram.add(c);
+                length++;
             }
-            StdOut.print(temp.getData().getCharacter());
+            reader.close();
+            stage.end(textFile, null, length);
+
+            stage = HuffmanMetrics.start(HuffmanMetrics.BUILD, textFile);
+            Codebook codebook = makeCodebook(histogram);
+            stage.codebook(histogram, codebook);
+            stage.end(0, 0, histogram.size());
+
+            stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, textFile);
+            BitOutputStream out = new BitOutputStream(new FileOutputStream(encodedFile));
+            new HuffmanHeader(HuffmanHeader.MODE_CODE_POINTS, length, codebook).write(out);
+            reader = new CodePointReader(openText(textFile));
+            while ((c = reader.read()) != -1)
+                codebook.encodeSymbol(out, c);
+            reader.close();
+            out.close();
+            stage.end(textFile, encodedFile, length);
+        } catch (IOException e) {
+            System.err.println("Error when writing to file!");
+        }
+    }
+
+    /**
+     * Builds a canonical codebook from a table of symbol counts, using a
+     * TreeBuilder rather than makeSortedList and makeTree
+     * 
+     * @param occ Array indexed by symbol, holding how often each occurs
+     * @return Codebook indexed by symbol, empty if nothing occurs
+     */
+    public static Codebook makeCodebook(long[] occ) {
+        TreeBuilder builder = new TreeBuilder(Math.min(occ.length, 256));
+        builder.build(occ);
+        return new Codebook(builder.codeLengths());
+    }
+
+    /**
+     * Builds a canonical codebook from a table of symbol counts with no code
+     * longer than maxLength bits
+     * 
+     * @param occ       Array indexed by symbol, holding how often each occurs
+     * @param maxLength The longest code allowed
+     * @return Codebook indexed by symbol, empty if nothing occurs
+     */
+    public static Codebook makeCodebook(long[] occ, int maxLength) {
+        return new Codebook(LengthLimitedCodes.lengths(occ, maxLength));
+    }
+
+    /**
+     * Builds a canonical codebook for the symbols in a sparse histogram
+     * 
+     * @param histogram The symbol counts
+     * @return Codebook indexed by the original symbols
+     */
+    public static Codebook makeCodebook(SparseHistogram histogram) {
+        TreeBuilder builder = new TreeBuilder(histogram.size());
+        builder.build(histogram);
+        return new Codebook(builder.codeLengths());
+    }
+
+    /**
+     * Decodes a file written by encode, encodeBytes, or encodeCodePoints,
+     * rebuilding the codebook from the file's header
+     * 
+     * @param encodedFile The self-describing file to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decode(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            long length = MappedDecoder.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, length);
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
         }
     }
+
+    /**
+     * Encodes any file byte by byte as independent blocks, using every core.
+     * See BlockCoding for the container layout.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encodeBlocks(String inputFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            BlockCoding.encode(inputFile, encodedFile);
+            stage.end(inputFile, encodedFile, new File(inputFile).length());
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeBlocks, decoding blocks in parallel
+     * 
+     * @param encodedFile The block container to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeBlocks(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            BlockCoding.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, new File(decodedFile).length());
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes any file with an order-1 context model, where each byte's code
+     * depends on the byte before it. See ContextCoding for the format.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encodeContext(String inputFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            ContextCoding.encode(inputFile, encodedFile);
+            stage.end(inputFile, encodedFile, new File(inputFile).length());
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeContext
+     * 
+     * @param encodedFile The order-1 encoded file
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeContext(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            ContextCoding.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, new File(decodedFile).length());
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes any file byte by byte as blocks split into 4 interleaved
+     * bitstreams, which decode faster than a single stream. See
+     * InterleavedCoding for the format.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encodeInterleaved(String inputFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            InterleavedCoding.encode(inputFile, encodedFile);
+            stage.end(inputFile, encodedFile, new File(inputFile).length());
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeInterleaved
+     * 
+     * @param encodedFile The interleaved encoded file
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeInterleaved(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            InterleavedCoding.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, new File(decodedFile).length());
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes any file with LZ77 matching before huffman coding, which suits
+     * repetitive input such as logs. See LzCoding for the format.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     * @param level       LzCoding.FAST or LzCoding.STRONG
+     */
+    public static void encodeLz(String inputFile, String encodedFile, int level) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            LzCoding.encode(inputFile, encodedFile, level);
+            stage.end(inputFile, encodedFile, new File(inputFile).length());
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeLz
+     * 
+     * @param encodedFile The LZ encoded file
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeLz(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            LzCoding.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, new File(decodedFile).length());
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes any file with a Burrows-Wheeler, move-to-front and run-length
+     * stage before huffman coding, which suits text. Blocks are encoded on
+     * every core. See BwtCoding for the format.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encodeBwt(String inputFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            BwtCoding.encode(inputFile, encodedFile);
+            stage.end(inputFile, encodedFile, new File(inputFile).length());
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeBwt, decoding blocks in parallel
+     * 
+     * @param encodedFile The BWT encoded file
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeBwt(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            BwtCoding.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, new File(decodedFile).length());
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes a text file with one code per word instead of per character,
+     * escaping words too rare to be worth a code. See WordCoding for the
+     * format.
+     * 
+     * @param textFile    The text file which is to be encoded
+     * @param encodedFile The file name into which the text file is to be encoded
+     */
+    public static void encodeWords(String textFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, textFile);
+            long tokens = WordCoding.encode(textFile, encodedFile);
+            stage.end(textFile, encodedFile, tokens);
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeWords
+     * 
+     * @param encodedFile The word encoded file
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeWords(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            long tokens = WordCoding.decode(encodedFile, decodedFile);
+            stage.end(encodedFile, decodedFile, tokens);
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Encodes any file in a single pass with adaptive huffman coding. No
+     * counting pass is needed, so this also suits pipes and sockets through
+     * AdaptiveHuffman directly.
+     * 
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encodeAdaptive(String inputFile, String encodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.ENCODE, inputFile);
+            InputStream in = new FileInputStream(inputFile);
+            OutputStream out = new FileOutputStream(encodedFile);
+            AdaptiveHuffman.encode(in, out);
+            in.close();
+            out.close();
+            stage.end(inputFile, encodedFile, new File(inputFile).length());
+        } catch (IOException e) {
+            System.err.println("Error when writing to file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeAdaptive
+     * 
+     * @param encodedFile The adaptively encoded file
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decodeAdaptive(String encodedFile, String decodedFile) {
+        try {
+            HuffmanMetrics.Stage stage = HuffmanMetrics.start(HuffmanMetrics.DECODE, encodedFile);
+            InputStream in = new BufferedInputStream(new FileInputStream(encodedFile), 1 << 16);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(decodedFile), 1 << 16);
+            AdaptiveHuffman.decode(in, out);
+            in.close();
+            out.close();
+            stage.end(encodedFile, decodedFile, new File(decodedFile).length());
+        } catch (IOException e) {
+            System.err.println("Error while decoding file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts or stops collecting the timers and counters returned by
+     * getMetrics. Stages are also sent to JDK Flight Recorder as HuffmanEvents
+     * whenever it records them, whether or not metrics are collected here.
+     * 
+     * @param enabled Whether to collect metrics
+     */
+    public static void setMetricsEnabled(boolean enabled) {
+        HuffmanMetrics.setEnabled(enabled);
+    }
+
+    /**
+     * Returns the timers and counters of every stage run since metrics were
+     * enabled: bytes in and out, symbols per second, allocation per megabyte,
+     * and how the newest codebook's average code length compares with the
+     * entropy of the counts it was built from
+     * 
+     * @return A snapshot of the metrics, which later calls do not change
+     */
+    public static HuffmanMetrics.Snapshot getMetrics() {
+        return HuffmanMetrics.snapshot();
+    }
+
+    private static long sum(long[] occ) {
+        long total = 0;
+        for (long n : occ)
+            total += n;
+        return total;
+    }
+
+    /**
+     * Opens a text file for reading characters, using the same character set as
+     * StdIn
+     */
+    private static Reader openText(String filename) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8),
+                1 << 16);
+    }
 }
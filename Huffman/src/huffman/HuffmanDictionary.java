@@ -0,0 +1,312 @@
+package huffman;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class holds a codebook trained ahead of time on a sample of records,
+ * so that many short records can each be encoded on their own without a
+ * header or a tree of their own. A record is encoded as its bytes' codes
+ * followed by the code for END, padded with zeroes to a whole byte, so the
+ * decoder knows where it stops without being told its length.
+ *
+ * Every byte value gets a code, even ones the sample never had, by counting
+ * each one once more than it occurs. Codes are at most MAX_CODE_LENGTH bits.
+ *
+ * Dictionaries are saved with an ID, and loaded dictionaries are cached by
+ * that ID, so the codebook and decoding tables are only ever built once per
+ * dictionary. Encoding and decoding a record then only packs and unpacks
+ * bits. A dictionary never changes once built, so it can be shared by any
+ * number of threads. A saved dictionary looks like this:
+ *
+ * <pre>
+ * magic     32 bits, "HUFD"
+ * version    8 bits
+ * id        varint
+ * lengths   code lengths for symbols 0 to END, as in HuffmanHeader
+ * </pre>
+ */
+public class HuffmanDictionary {
+    public static final int MAGIC = 0x48554644;
+    public static final int VERSION = 1;
+    public static final int END = 256;
+    public static final int MAX_CODE_LENGTH = 16;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final ConcurrentHashMap<Integer, HuffmanDictionary> CACHE = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final Codebook codebook;
+    private final long[] codeBits = new long[END + 1];
+    private final int[] codeLen = new int[END + 1];
+    private final int[] table;
+    private final int rootBits;
+
+    private HuffmanDictionary(int id, Codebook codebook) {
+        this.id = id;
+        this.codebook = codebook;
+        for (int s = 0; s <= END; s++) {
+            codeBits[s] = codebook.getCodeBits(s);
+            codeLen[s] = codebook.getCodeLength(s);
+        }
+        TableDecoder decoder = codebook.getDecoder();
+        table = decoder.getTable();
+        rootBits = decoder.getRootBits();
+    }
+
+    /**
+     * Trains a dictionary on sample records
+     *
+     * @param id      The ID to save the dictionary under
+     * @param samples Records like the ones which will be encoded
+     * @return The dictionary, which is not cached until it is registered
+     */
+    public static HuffmanDictionary train(int id, Iterable<byte[]> samples) {
+        long[] occ = new long[END + 1];
+        Arrays.fill(occ, 1);
+        for (byte[] record : samples) {
+            for (byte b : record)
+                occ[b & 0xFF]++;
+            occ[END]++;
+        }
+        return new HuffmanDictionary(id, new Codebook(LengthLimitedCodes.lengths(occ, MAX_CODE_LENGTH)));
+    }
+
+    /**
+     * Trains a dictionary on a sample file with one record on each line
+     *
+     * @param id         The ID to save the dictionary under
+     * @param sampleFile The UTF-8 file of sample records
+     * @return The dictionary, which is not cached until it is registered
+     */
+    public static HuffmanDictionary train(int id, String sampleFile) throws IOException {
+        return train(id, readLines(sampleFile));
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public Codebook getCodebook() {
+        return codebook;
+    }
+
+    /**
+     * Caches this dictionary under its ID, replacing any other with that ID
+     *
+     * @return This dictionary
+     */
+    public HuffmanDictionary register() {
+        CACHE.put(id, this);
+        return this;
+    }
+
+    /**
+     * Finds a cached dictionary
+     *
+     * @param id The dictionary's ID
+     * @return The dictionary
+     * @throws IllegalArgumentException If no dictionary has that ID
+     */
+    public static HuffmanDictionary forId(int id) {
+        HuffmanDictionary dictionary = CACHE.get(id);
+        if (dictionary == null)
+            throw new IllegalArgumentException("No huffman dictionary with ID " + id);
+        return dictionary;
+    }
+
+    /**
+     * Saves this dictionary
+     *
+     * @param file The file to save to
+     */
+    public void save(String file) throws IOException {
+        BitOutputStream out = new BitOutputStream(new FileOutputStream(file));
+        out.writeBits(MAGIC, 32);
+        out.writeBits(VERSION, 8);
+        HuffmanHeader.writeVarint(out, id);
+        HuffmanHeader.writeLengths(out, codebook);
+        out.close();
+    }
+
+    /**
+     * Loads a saved dictionary and caches it under its ID. As with register,
+     * it replaces a cached dictionary with that ID unless the cached one has
+     * the same codes, in which case the cached one is kept and returned.
+     *
+     * @param file The file the dictionary was saved to
+     * @return The cached dictionary
+     */
+    public static HuffmanDictionary load(String file) throws IOException {
+        BitInputStream in = new BitInputStream(new FileInputStream(file), 1 << 12);
+        try {
+            if (in.readBits(32) != MAGIC)
+                throw new IOException("Not a huffman dictionary");
+            int version = (int) in.readBits(8);
+            if (version != VERSION)
+                throw new IOException("Unsupported huffman dictionary version " + version);
+            long id = HuffmanHeader.readVarint(in);
+            if (id > Integer.MAX_VALUE)
+                throw new IOException("Corrupt huffman dictionary ID " + id);
+            Codebook codebook = HuffmanHeader.readLengths(in);
+            for (int s = 0; s <= END; s++) {
+                if (codebook.getCodeLength(s) == 0 || codebook.getCodeLength(s) > MAX_CODE_LENGTH)
+                    throw new IOException("Corrupt huffman dictionary, bad code for symbol " + s);
+            }
+            byte[] lengths = codebook.getLengths();
+            return CACHE.compute((int) id,
+                    (key, cached) -> cached != null && Arrays.equals(cached.codebook.getLengths(), lengths) ? cached
+                            : new HuffmanDictionary(key, codebook));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param length The length of a record
+     * @return The most bytes encoding the record can take
+     */
+    public int maxEncodedLength(int length) {
+        return (int) (((long) length * MAX_CODE_LENGTH + MAX_CODE_LENGTH + 7) / 8);
+    }
+
+    /**
+     * Encodes a record
+     *
+     * @param record The record
+     * @return The encoded record
+     */
+    public byte[] encode(byte[] record) {
+        byte[] encoded = new byte[maxEncodedLength(record.length)];
+        return Arrays.copyOf(encoded, encode(record, 0, record.length, encoded, 0));
+    }
+
+    /**
+     * Encodes a record into an array without allocating
+     *
+     * @param src    Array holding the record
+     * @param off    Where the record starts
+     * @param len    The length of the record
+     * @param dst    Array to encode into, with at least maxEncodedLength(len)
+     *               bytes free
+     * @param dstOff Where to start writing
+     * @return The number of bytes written
+     */
+    public int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        long[] codeBits = this.codeBits;
+        int[] codeLen = this.codeLen;
+        long acc = 0;
+        int n = 0;
+        int o = dstOff;
+        for (int i = off, end = off + len; i < end; i++) {
+            int s = src[i] & 0xFF;
+            acc = (acc << codeLen[s]) | codeBits[s];
+            n += codeLen[s];
+            while (n >= 8) {
+                n -= 8;
+                dst[o++] = (byte) (acc >>> n);
+            }
+        }
+        acc = (acc << codeLen[END]) | codeBits[END];
+        n += codeLen[END];
+        while (n >= 8) {
+            n -= 8;
+            dst[o++] = (byte) (acc >>> n);
+        }
+        if (n > 0)
+            dst[o++] = (byte) (acc << (8 - n));
+        return o - dstOff;
+    }
+
+    /**
+     * Decodes a record
+     *
+     * @param encoded The encoded record
+     * @return The record
+     * @throws IllegalArgumentException If the encoding is corrupt
+     */
+    public byte[] decode(byte[] encoded) {
+        byte[] record = new byte[Math.max(16, encoded.length * 2)];
+        int length;
+        while ((length = decode(encoded, 0, encoded.length, record, 0, record.length)) < 0)
+            record = new byte[record.length * 2];
+        return Arrays.copyOf(record, length);
+    }
+
+    /**
+     * Decodes a record into an array without allocating
+     *
+     * @param src    Array holding the encoded record
+     * @param off    Where the encoded record starts
+     * @param len    The length of the encoded record
+     * @param dst    Array to decode into
+     * @param dstOff Where to start writing
+     * @param dstLen The most bytes which may be written
+     * @return The length of the record, or -1 if it needs more than dstLen
+     *         bytes
+     * @throws IllegalArgumentException If the encoding is corrupt
+     */
+    public int decode(byte[] src, int off, int len, byte[] dst, int dstOff, int dstLen) {
+        int[] table = this.table;
+        int shift = 64 - rootBits;
+        long limit = 8L * len;
+        long position = 0;
+        int o = dstOff;
+        while (true) {
+            int entry = table[(int) (load(src, off, len, position) >>> shift)];
+            int bits = rootBits;
+            while (entry < 0) {
+                position += bits;
+                entry = ~entry;
+                bits = entry & 31;
+                entry = table[(entry >>> 5) + (int) (load(src, off, len, position) >>> (64 - bits))];
+            }
+            position += entry & 31;
+            if (position > limit || (entry & 31) == 0)
+                throw new IllegalArgumentException("Corrupt record for huffman dictionary " + id);
+
+            int symbol = entry >>> 5;
+            if (symbol == END)
+                return o - dstOff;
+            if (o - dstOff == dstLen)
+                return -1;
+            dst[o++] = (byte) symbol;
+        }
+    }
+
+    // Loads 64 bits from a bit position in src[off, off + len), left-aligned
+    // and with zeroes past the end
+    private static long load(byte[] src, int off, int len, long position) {
+        int index = (int) (position >>> 3);
+        long word;
+        if (index + 8 <= len) {
+            word = (long) LONGS.get(src, off + index);
+        } else {
+            word = 0;
+            for (int i = 0; i < 8; i++)
+                word = (word << 8) | (index + i < len ? src[off + index + i] & 0xFF : 0);
+        }
+        return word << (position & 7);
+    }
+
+    private static ArrayList<byte[]> readLines(String file) throws IOException {
+        ArrayList<byte[]> lines = new ArrayList<byte[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null)
+            lines.add(line.getBytes(StandardCharsets.UTF_8));
+        reader.close();
+        return lines;
+    }
+}
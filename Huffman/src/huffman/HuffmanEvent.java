@@ -0,0 +1,54 @@
+package huffman;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * This class is the JDK Flight Recorder event committed for each stage of a
+ * HuffmanCoding call, for example "java -XX:StartFlightRecording ...". The
+ * event's duration is the time the stage took. Fields which do not apply to
+ * a stage are left at 0.
+ */
+@Name("huffman.Stage")
+@Label("Huffman Stage")
+@Category("Huffman")
+@Description("One stage of huffman encoding or decoding")
+@StackTrace(false)
+class HuffmanEvent extends jdk.jfr.Event {
+    @Label("Stage")
+    String stage;
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Symbols")
+    long symbols;
+
+    @Label("Average Code Length")
+    @Description("Bits per symbol of the codebook, weighted by how often each symbol occurs")
+    double averageCodeLength;
+
+    @Label("Entropy")
+    @Description("Shannon entropy of the symbol counts in bits per symbol, the least any code could average")
+    double entropy;
+
+    @Label("Tree Depth")
+    int treeDepth;
+
+    @Label("Allocated")
+    @Description("Bytes allocated by the calling thread during the stage")
+    @DataAmount
+    long allocated;
+}
@@ -0,0 +1,232 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * This class describes the header at the start of a self-describing encoded
+ * file. It holds everything needed to decode the file without the original
+ * huffman coding tree. Fields are written most significant bit first:
+ *
+ * <pre>
+ * magic          32 bits, "HUFC"
+ * version         8 bits
+ * mode            8 bits, what the symbols stand for
+ * length         varint, number of symbols in the original input
+ * lengthBits      8 bits, bits used for each code length
+ * layout          8 bits, LAYOUT_RANGE or LAYOUT_LIST
+ * </pre>
+ *
+ * The canonical code lengths come next, in whichever layout is smaller.
+ * LAYOUT_RANGE stores a varint first symbol and a varint symbol count, then
+ * one length for every symbol in that range, 0 for symbols without a code.
+ * LAYOUT_LIST stores a varint number of symbols with codes, then for each a
+ * varint gap since the previous symbol followed by its length. The list suits
+ * alphabets with a few symbols spread far apart.
+ *
+ * The encoded symbols follow directly, and the last byte is padded with
+ * zeroes. Varints are written 7 bits at a time, low bits first, with the top
+ * bit of each byte set while more bytes follow.
+ */
+public class HuffmanHeader {
+    public static final int MAGIC = 0x48554643;
+    public static final int VERSION = 1;
+
+    /** Each symbol is a UTF-8 character, as read by StdIn */
+    public static final int MODE_CHARS = 0;
+
+    /** Each symbol is a raw byte, 0 to 255 */
+    public static final int MODE_BYTES = 1;
+
+    /** Each symbol is a Unicode code point read from UTF-8 text */
+    public static final int MODE_CODE_POINTS = 2;
+
+    public static final int LAYOUT_RANGE = 0;
+    public static final int LAYOUT_LIST = 1;
+
+    // No alphabet goes past the Unicode code points, so a larger one can only
+    // come from a corrupt file
+    private static final int MAX_SYMBOLS = 0x110000;
+
+    private final int mode;
+    private final long length;
+    private final Codebook codebook;
+
+    public HuffmanHeader(int mode, long length, Codebook codebook) {
+        this.mode = mode;
+        this.length = length;
+        this.codebook = codebook;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public Codebook getCodebook() {
+        return codebook;
+    }
+
+    /**
+     * Writes this header
+     *
+     * @param out The bit writer, positioned at the start of the file
+     */
+    public void write(BitOutputStream out) throws IOException {
+        out.writeBits(MAGIC, 32);
+        out.writeBits(VERSION, 8);
+        out.writeBits(mode, 8);
+        writeVarint(out, length);
+        writeLengths(out, codebook);
+    }
+
+    /**
+     * Writes the code lengths of a codebook, in whichever layout is smaller
+     *
+     * @param out      The bit writer to write to
+     * @param codebook The codebook whose lengths are written
+     */
+    static void writeLengths(BitOutputStream out, Codebook codebook) throws IOException {
+        int first = 0, last = -1, used = 0, maxLength = 0;
+        for (int s = 0; s < codebook.size(); s++) {
+            if (codebook.getCodeLength(s) > 0) {
+                if (last < 0)
+                    first = s;
+                last = s;
+                used++;
+                maxLength = Math.max(maxLength, codebook.getCodeLength(s));
+            }
+        }
+        int lengthBits = 32 - Integer.numberOfLeadingZeros(maxLength);
+        out.writeBits(lengthBits, 8);
+
+        // Work out the size of both layouts and write the smaller one
+        long rangeBits = (long) (last - first + 1) * lengthBits;
+        long listBits = 0;
+        for (int s = first, previous = -1; s <= last; s++) {
+            if (codebook.getCodeLength(s) > 0) {
+                listBits += varintBytes(s - previous - 1) * 8 + lengthBits;
+                previous = s;
+            }
+        }
+
+        if (rangeBits <= listBits) {
+            out.writeBits(LAYOUT_RANGE, 8);
+            writeVarint(out, first);
+            writeVarint(out, last - first + 1);
+            for (int s = first; s <= last; s++)
+                out.writeBits(codebook.getCodeLength(s), lengthBits);
+        } else {
+            out.writeBits(LAYOUT_LIST, 8);
+            writeVarint(out, used);
+            for (int s = first, previous = -1; s <= last; s++) {
+                if (codebook.getCodeLength(s) > 0) {
+                    writeVarint(out, s - previous - 1);
+                    out.writeBits(codebook.getCodeLength(s), lengthBits);
+                    previous = s;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a header and rebuilds its codebook
+     *
+     * @param in The bit reader, positioned at the start of the file
+     * @return The header
+     * @throws IOException If the file is not in this format
+     */
+    public static HuffmanHeader read(BitInputStream in) throws IOException {
+        if (in.readBits(32) != MAGIC)
+            throw new IOException("Not a self-describing huffman file");
+        int version = (int) in.readBits(8);
+        if (version != VERSION)
+            throw new IOException("Unsupported huffman file version " + version);
+        int mode = (int) in.readBits(8);
+        long length = readVarint(in);
+        return new HuffmanHeader(mode, length, readLengths(in));
+    }
+
+    /**
+     * Reads code lengths written by writeLengths and rebuilds the codebook
+     *
+     * @param in The bit reader to read from
+     * @return The codebook
+     * @throws IOException If the lengths are corrupt
+     */
+    static Codebook readLengths(BitInputStream in) throws IOException {
+        int lengthBits = (int) in.readBits(8);
+        int layout = (int) in.readBits(8);
+        if (lengthBits > 7)
+            throw new IOException("Corrupt huffman file header");
+
+        byte[] lengths;
+        if (layout == LAYOUT_RANGE) {
+            // Check the varints as longs, so that large values can neither
+            // be cut short by the cast nor overflow the sum
+            long first = readVarint(in);
+            long count = readVarint(in);
+            if (first < 0 || count < 0 || first > MAX_SYMBOLS || count > MAX_SYMBOLS - first)
+                throw new IOException("Corrupt huffman file header");
+            lengths = new byte[(int) (first + count)];
+            for (int s = (int) first; s < lengths.length; s++)
+                lengths[s] = (byte) in.readBits(lengthBits);
+        } else if (layout == LAYOUT_LIST) {
+            long listedCount = readVarint(in);
+            if (listedCount < 0 || listedCount > MAX_SYMBOLS)
+                throw new IOException("Corrupt huffman file header");
+            int used = (int) listedCount;
+            int[] symbols = new int[used];
+            byte[] listed = new byte[used];
+            for (int i = 0, previous = -1; i < used; i++) {
+                long gap = readVarint(in);
+                if (gap < 0 || gap >= MAX_SYMBOLS - 1 - previous)
+                    throw new IOException("Corrupt huffman file header");
+                symbols[i] = previous + 1 + (int) gap;
+                listed[i] = (byte) in.readBits(lengthBits);
+                previous = symbols[i];
+            }
+            lengths = new byte[used > 0 ? symbols[used - 1] + 1 : 0];
+            for (int i = 0; i < used; i++)
+                lengths[symbols[i]] = listed[i];
+        } else {
+            throw new IOException("Corrupt huffman file header");
+        }
+
+        try {
+            return new Codebook(lengths);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt huffman file header: " + e.getMessage());
+        }
+    }
+
+    static void writeVarint(BitOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeBits((value & 0x7F) | 0x80, 8);
+            value >>>= 7;
+        }
+        out.writeBits(value, 8);
+    }
+
+    private static int varintBytes(long value) {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    static long readVarint(BitInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            long b = in.readBits(8);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt huffman file header");
+    }
+}
@@ -0,0 +1,143 @@
+package huffman;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class decompresses a stream written by HuffmanOutputStream. Each
+ * frame is read from the underlying stream in full before it is decoded, so
+ * the reader never waits for bytes past the end of a flushed frame. Every
+ * stream has its own decoder state, so any number of them can be used from
+ * different threads at once.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+    private byte[] frame = new byte[0];
+    private BitInputStream bits;
+    private TableDecoder decoder;
+    private long remaining;
+    private boolean closed;
+
+    /**
+     * @param in The stream of compressed frames to read from
+     */
+    public HuffmanInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (remaining == 0 && !nextFrame())
+            return -1;
+        remaining--;
+        return decoder.decodeSymbol(bits);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (remaining == 0 && !nextFrame())
+            return -1;
+
+        int n = (int) Math.min(len, remaining);
+        for (int i = 0; i < n; i++)
+            b[off + i] = (byte) decoder.decodeSymbol(bits);
+        remaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ensureOpen();
+        long skipped = 0;
+        while (skipped < n && (remaining > 0 || nextFrame())) {
+            decoder.decodeSymbol(bits);
+            remaining--;
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * @return The number of decoded bytes left in the current frame, which
+     *         can be read without blocking
+     */
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        in.close();
+    }
+
+    /**
+     * Reads the next frame with any bytes in it
+     *
+     * @return false if the stream ended cleanly between frames
+     */
+    private boolean nextFrame() throws IOException {
+        while (remaining == 0) {
+            long size = readSize();
+            if (size < 0)
+                return false;
+            if (size > Integer.MAX_VALUE - 8)
+                throw new IOException("Corrupt huffman stream, frame of " + size + " bytes");
+            if (frame.length < size)
+                frame = new byte[(int) size];
+            for (int read = 0; read < size;) {
+                int n = in.read(frame, read, (int) size - read);
+                if (n < 0)
+                    throw new EOFException("Huffman stream ended inside a frame");
+                read += n;
+            }
+
+            bits = new BitInputStream(new ByteArrayInputStream(frame, 0, (int) size), 1 << 12);
+            HuffmanHeader header = HuffmanHeader.read(bits);
+            if (header.getMode() != HuffmanHeader.MODE_BYTES)
+                throw new IOException("Huffman stream frame is not in byte mode");
+            remaining = header.getLength();
+            decoder = remaining > 0 ? header.getCodebook().getDecoder() : null;
+        }
+        return true;
+    }
+
+    // Reads a frame's varint size, or returns -1 at the end of the stream
+    private long readSize() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0)
+                    return -1;
+                throw new EOFException("Huffman stream ended inside a frame size");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Corrupt huffman stream frame size");
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
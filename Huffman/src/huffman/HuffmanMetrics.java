@@ -0,0 +1,395 @@
+package huffman;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class keeps timers and counters for each stage of the HuffmanCoding
+ * file methods, and hands out snapshots of them through
+ * HuffmanCoding.getMetrics. The stages are:
+ *
+ * <pre>
+ * COUNT    counting how often each symbol occurs
+ * BUILD    building the tree or codebook from the counts
+ * ENCODE   writing the encoded file
+ * DECODE   writing the decoded file
+ * </pre>
+ *
+ * Every stage is also committed as a HuffmanEvent when JDK Flight Recorder is
+ * recording it. Nothing is measured unless metrics are enabled or the event
+ * is, and stages are whole passes over a file, never single symbols, so the
+ * cost when no one is listening is one check per stage.
+ */
+public class HuffmanMetrics {
+    public static final int COUNT = 0;
+    public static final int BUILD = 1;
+    public static final int ENCODE = 2;
+    public static final int DECODE = 3;
+    private static final String[] NAMES = { "count", "build", "encode", "decode" };
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+    private static volatile boolean enabled;
+
+    // Never committed, only asked whether Flight Recorder wants the event, so
+    // that no event is allocated when it does not
+    private static final HuffmanEvent PROBE = new HuffmanEvent();
+
+    // Totals for each stage, guarded by the class
+    private static final long[] calls = new long[NAMES.length];
+    private static final long[] nanos = new long[NAMES.length];
+    private static final long[] bytesIn = new long[NAMES.length];
+    private static final long[] bytesOut = new long[NAMES.length];
+    private static final long[] symbols = new long[NAMES.length];
+    private static final long[] allocated = new long[NAMES.length];
+
+    // The most recently built codebook
+    private static double averageCodeLength;
+    private static double entropy;
+    private static int treeDepth;
+
+    private HuffmanMetrics() {
+    }
+
+    /**
+     * Starts or stops collecting metrics for snapshots. Flight Recorder events
+     * do not depend on this.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets every counter back to 0
+     */
+    public static synchronized void reset() {
+        for (long[] totals : new long[][] { calls, nanos, bytesIn, bytesOut, symbols, allocated })
+            Arrays.fill(totals, 0);
+        averageCodeLength = 0;
+        entropy = 0;
+        treeDepth = 0;
+    }
+
+    /**
+     * @return A copy of the counters as they are now
+     */
+    public static synchronized Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Starts timing a stage
+     *
+     * @param stage One of COUNT, BUILD, ENCODE, or DECODE
+     * @param file  The file the stage reads, for the Flight Recorder event
+     * @return The running stage, which does nothing if no one is listening
+     */
+    static Stage start(int stage, String file) {
+        if (!PROBE.isEnabled())
+            return enabled ? new Stage(stage, file, null) : Stage.OFF;
+        return new Stage(stage, file, new HuffmanEvent());
+    }
+
+    private static synchronized void record(Stage stage, long elapsed, long in, long out, long count,
+            long bytesAllocated) {
+        if (!enabled)
+            return;
+        int s = stage.stage;
+        calls[s]++;
+        nanos[s] += elapsed;
+        bytesIn[s] += in;
+        bytesOut[s] += out;
+        symbols[s] += count;
+        allocated[s] += bytesAllocated;
+        if (stage.treeDepth > 0) {
+            averageCodeLength = stage.averageCodeLength;
+            entropy = stage.entropy;
+            treeDepth = stage.treeDepth;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported())
+            return (com.sun.management.ThreadMXBean) threads;
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * This class is one stage while it runs. Stages are only used by the
+     * thread which started them.
+     */
+    static class Stage {
+        static final Stage OFF = new Stage(-1, null, null);
+
+        private final int stage;
+        private final String file;
+        private final HuffmanEvent event;
+        private final long startNanos;
+        private final long startAllocated;
+        private double averageCodeLength;
+        private double entropy;
+        private int treeDepth;
+
+        private Stage(int stage, String file, HuffmanEvent event) {
+            this.stage = stage;
+            this.file = file;
+            this.event = event;
+            if (event != null)
+                event.begin();
+            startNanos = stage < 0 ? 0 : System.nanoTime();
+            startAllocated = stage < 0 ? 0 : allocatedBytes();
+        }
+
+        /**
+         * Records how good a codebook is for the counts it was built from
+         *
+         * @param occ      Array indexed by symbol, holding how often each occurs
+         * @param codebook The codebook built from occ
+         */
+        void codebook(long[] occ, Codebook codebook) {
+            if (this == OFF)
+                return;
+            double total = 0;
+            for (long n : occ)
+                total += n;
+            double bits = 0, information = 0;
+            for (int s = 0; s < occ.length; s++) {
+                if (occ[s] == 0)
+                    continue;
+                double p = occ[s] / total;
+                bits += p * codebook.getCodeLength(s);
+                information -= p * Math.log(p);
+            }
+            codebook(bits, information / Math.log(2), codebook.getLengths());
+        }
+
+        /**
+         * Records how good a codebook is for the counts it was built from
+         *
+         * @param histogram The symbol counts
+         * @param codebook  The codebook built from histogram
+         */
+        void codebook(SparseHistogram histogram, Codebook codebook) {
+            if (this == OFF)
+                return;
+            int[] keys = histogram.sortedKeys();
+            double total = 0;
+            for (int key : keys)
+                total += histogram.get(key);
+            double bits = 0, information = 0;
+            for (int key : keys) {
+                double p = histogram.get(key) / total;
+                bits += p * codebook.getCodeLength(key);
+                information -= p * Math.log(p);
+            }
+            codebook(bits, information / Math.log(2), codebook.getLengths());
+        }
+
+        /**
+         * Records how good a huffman coding tree is for the list it was built
+         * from
+         *
+         * @param sortedList Arraylist of CharFreq objects given to makeTree
+         * @param root       The root of the tree built from sortedList
+         */
+        void tree(ArrayList<CharFreq> sortedList, TreeNode root) {
+            if (this == OFF)
+                return;
+            double information = 0;
+            for (CharFreq charFreq : sortedList) {
+                double p = charFreq.getProbOccurrence();
+                if (p > 0)
+                    information -= p * Math.log(p);
+            }
+
+            // Walked without a stack of calls, and without Codebook's limit
+            // on code length, since makeTree's trees can be as deep as the
+            // list is long
+            double bits = 0;
+            int depth = 0;
+            ArrayDeque<TreeNode> nodes = new ArrayDeque<TreeNode>();
+            ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+            nodes.push(root);
+            depths.push(0);
+            while (!nodes.isEmpty()) {
+                TreeNode node = nodes.pop();
+                int d = depths.pop();
+                if (node.getLeft() == null && node.getRight() == null) {
+                    // A lone leaf at the root still needs a one bit code
+                    d = Math.max(d, 1);
+                    bits += node.getData().getProbOccurrence() * d;
+                    depth = Math.max(depth, d);
+                    continue;
+                }
+                if (node.getLeft() != null) {
+                    nodes.push(node.getLeft());
+                    depths.push(d + 1);
+                }
+                if (node.getRight() != null) {
+                    nodes.push(node.getRight());
+                    depths.push(d + 1);
+                }
+            }
+            codebook(bits, information / Math.log(2), depth);
+        }
+
+        private void codebook(double bits, double entropy, byte[] lengths) {
+            int depth = 0;
+            for (byte length : lengths)
+                depth = Math.max(depth, length);
+            codebook(bits, entropy, depth);
+        }
+
+        private void codebook(double bits, double entropy, int depth) {
+            this.averageCodeLength = bits;
+            this.entropy = entropy;
+            this.treeDepth = depth;
+        }
+
+        /**
+         * Stops timing the stage
+         *
+         * @param in    The number of bytes the stage read
+         * @param out   The number of bytes the stage wrote
+         * @param count The number of symbols the stage went through
+         */
+        void end(long in, long out, long count) {
+            if (this == OFF)
+                return;
+            long elapsed = System.nanoTime() - startNanos;
+            long bytesAllocated = allocatedBytes() - startAllocated;
+            record(this, elapsed, in, out, count, bytesAllocated);
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.stage = NAMES[stage];
+                    event.file = file;
+                    event.bytesIn = in;
+                    event.bytesOut = out;
+                    event.symbols = count;
+                    event.averageCodeLength = averageCodeLength;
+                    event.entropy = entropy;
+                    event.treeDepth = treeDepth;
+                    event.allocated = bytesAllocated;
+                    event.commit();
+                }
+            }
+        }
+
+        /**
+         * Stops timing the stage, taking the bytes read and written from the
+         * sizes of its files
+         *
+         * @param inputFile  The file the stage read
+         * @param outputFile The file the stage wrote, or null if none
+         * @param count      The number of symbols the stage went through
+         */
+        void end(String inputFile, String outputFile, long count) {
+            if (this == OFF)
+                return;
+            end(new File(inputFile).length(), outputFile == null ? 0 : new File(outputFile).length(), count);
+        }
+    }
+
+    /**
+     * This class holds the counters as they were at one moment
+     */
+    public static class Snapshot {
+        private final long[] calls = HuffmanMetrics.calls.clone();
+        private final long[] nanos = HuffmanMetrics.nanos.clone();
+        private final long[] bytesIn = HuffmanMetrics.bytesIn.clone();
+        private final long[] bytesOut = HuffmanMetrics.bytesOut.clone();
+        private final long[] symbols = HuffmanMetrics.symbols.clone();
+        private final long[] allocated = HuffmanMetrics.allocated.clone();
+        private final double averageCodeLength = HuffmanMetrics.averageCodeLength;
+        private final double entropy = HuffmanMetrics.entropy;
+        private final int treeDepth = HuffmanMetrics.treeDepth;
+
+        private Snapshot() {
+        }
+
+        public long getCalls(int stage) {
+            return calls[stage];
+        }
+
+        public long getNanos(int stage) {
+            return nanos[stage];
+        }
+
+        public long getBytesIn(int stage) {
+            return bytesIn[stage];
+        }
+
+        public long getBytesOut(int stage) {
+            return bytesOut[stage];
+        }
+
+        public long getSymbols(int stage) {
+            return symbols[stage];
+        }
+
+        public double getSymbolsPerSecond(int stage) {
+            return nanos[stage] == 0 ? 0 : symbols[stage] / (nanos[stage] / 1e9);
+        }
+
+        /**
+         * @param stage One of COUNT, BUILD, ENCODE, or DECODE
+         * @return Bytes the calling threads allocated per megabyte the stage
+         *         read
+         */
+        public double getAllocatedPerMegabyte(int stage) {
+            return bytesIn[stage] == 0 ? 0 : allocated[stage] / (bytesIn[stage] / (1024.0 * 1024.0));
+        }
+
+        /**
+         * @return Bits per symbol of the most recently built codebook, weighted
+         *         by how often each symbol occurs
+         */
+        public double getAverageCodeLength() {
+            return averageCodeLength;
+        }
+
+        /**
+         * @return Shannon entropy in bits per symbol of the counts the most
+         *         recently built codebook came from
+         */
+        public double getEntropy() {
+            return entropy;
+        }
+
+        /**
+         * @return The longest code in the most recently built codebook
+         */
+        public int getTreeDepth() {
+            return treeDepth;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            for (int stage = 0; stage < NAMES.length; stage++) {
+                if (calls[stage] == 0)
+                    continue;
+                s.append(String.format("%-7s %5d calls %10.2f ms %12d -> %12d bytes %12.0f symbols/s %12.0f B/MB%n",
+                        NAMES[stage], calls[stage], nanos[stage] / 1e6, bytesIn[stage], bytesOut[stage],
+                        getSymbolsPerSecond(stage), getAllocatedPerMegabyte(stage)));
+            }
+            s.append(String.format("codebook %.4f bits/symbol, entropy %.4f bits/symbol, depth %d", averageCodeLength,
+                    entropy, treeDepth));
+            return s.toString();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class compresses everything written to it onto another stream. Bytes
+ * are collected into frames, and each full frame is coded with its own
+ * codebook, so no counting pass over the whole input is needed and memory
+ * use stays at about two frames. The stream is a sequence of frames, each
+ * written as:
+ *
+ * <pre>
+ * size    varint, the number of bytes in the rest of the frame
+ * frame   a self-describing MODE_BYTES file, as written by encodeBytes
+ * </pre>
+ *
+ * Calling flush ends the current frame early so that everything written so
+ * far can be decoded on the other side, which makes the stream usable over
+ * sockets. Every stream has its own buffers and codebooks, so any number of
+ * them can be used from different threads at once. HuffmanInputStream reads
+ * the stream back.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    public static final int DEFAULT_FRAME_SIZE = 1 << 20;
+
+    private final byte[] frame;
+    private int count;
+    private final long[] occ = new long[256];
+    private final TreeBuilder builder = new TreeBuilder(256);
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private boolean closed;
+
+    public HuffmanOutputStream(OutputStream out) {
+        this(out, DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * @param out       The stream to write compressed frames to
+     * @param frameSize The most input bytes coded with one codebook
+     */
+    public HuffmanOutputStream(OutputStream out, int frameSize) {
+        super(out);
+        if (frameSize < 1)
+            throw new IllegalArgumentException("Invalid frame size " + frameSize);
+        frame = new byte[frameSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == frame.length)
+            writeFrame();
+        frame[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        while (len > 0) {
+            if (count == frame.length)
+                writeFrame();
+            int n = Math.min(len, frame.length - count);
+            System.arraycopy(b, off, frame, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Ends the current frame and flushes the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (count > 0)
+            writeFrame();
+        out.flush();
+    }
+
+    /**
+     * Writes the last frame and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        try {
+            if (count > 0)
+                writeFrame();
+            out.flush();
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    // Codes the buffered bytes as one frame and writes it out
+    private void writeFrame() throws IOException {
+        Arrays.fill(occ, 0);
+        for (int i = 0; i < count; i++)
+            occ[frame[i] & 0xFF]++;
+        builder.build(occ);
+        byte[] lengths = new byte[256];
+        builder.codeLengths(lengths);
+        Codebook codebook = new Codebook(lengths);
+
+        // The frame is built in memory first so that its size can go in front
+        encoded.reset();
+        BitOutputStream bits = new BitOutputStream(encoded);
+        new HuffmanHeader(HuffmanHeader.MODE_BYTES, count, codebook).write(bits);
+        codebook.encode(bits, frame, 0, count);
+        bits.flush();
+
+        long size = encoded.size();
+        while ((size & ~0x7FL) != 0) {
+            out.write((int) (size & 0x7F) | 0x80);
+            size >>>= 7;
+        }
+        out.write((int) size);
+        encoded.writeTo(out);
+        count = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
@@ -0,0 +1,272 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * This class encodes a text file as three stages running at once, so that
+ * reading, encoding, and writing overlap instead of taking turns:
+ *
+ * <pre>
+ * reader    reads the text file into buffers
+ * encoder   decodes the UTF-8 in each buffer and writes the characters'
+ *           codes into output buffers, on the calling thread
+ * writer    writes the output buffers to the encoded file
+ * </pre>
+ *
+ * The stages pass direct ByteBuffers to each other through bounded queues,
+ * and every buffer goes back to the stage which fills it once it has been
+ * used. There are only ever BUFFERS buffers on each side, so memory stays
+ * the same however large the file is, and a stage which gets ahead simply
+ * waits for an empty buffer. On slow disks and network mounts this hides the
+ * time spent waiting for I/O behind the time spent encoding.
+ */
+public class HuffmanPipeline {
+    public static final int BUFFER_SIZE = 1 << 18;
+    public static final int BUFFERS = 4;
+
+    // Sent after the last full buffer
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ArrayBlockingQueue<ByteBuffer> emptyInput = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+    private final ArrayBlockingQueue<ByteBuffer> fullInput = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+    private final ArrayBlockingQueue<ByteBuffer> emptyOutput = new ArrayBlockingQueue<ByteBuffer>(BUFFERS);
+    private final ArrayBlockingQueue<ByteBuffer> fullOutput = new ArrayBlockingQueue<ByteBuffer>(BUFFERS + 1);
+
+    private final Thread encoder = Thread.currentThread();
+    private Thread reader;
+    private Thread writer;
+    private volatile Throwable failure;
+
+    private HuffmanPipeline() {
+        for (int i = 0; i < BUFFERS; i++) {
+            emptyInput.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+            emptyOutput.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+    }
+
+    /**
+     * Encodes a UTF-8 text file the way encodeFromArray does, with the
+     * legacy padding in front of the codes
+     *
+     * @param codebook    The codes to write for each character
+     * @param textFile    The text file which is to be encoded
+     * @param encodedFile The file name into which the text file is to be encoded
+     * @param bitLength   The total length of the codes, which decides the
+     *                    padding
+     */
+    public static void encodeText(Codebook codebook, String textFile, String encodedFile, long bitLength)
+            throws IOException {
+        new HuffmanPipeline().run(codebook, textFile, encodedFile, bitLength);
+    }
+
+    private void run(Codebook codebook, String textFile, String encodedFile, long bitLength) throws IOException {
+        FileChannel in = FileChannel.open(Paths.get(textFile), StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        reader = new Thread(() -> read(in), "huffman-reader");
+        writer = new Thread(() -> write(out), "huffman-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+        try {
+            BitOutputStream bits = new BitOutputStream(new Sink());
+            HuffmanCoding.writePadding(bits, bitLength);
+            encode(codebook, bits);
+            bits.close();
+            writer.join();
+        } catch (InterruptedException | IOException | RuntimeException e) {
+            // If another stage failed first, this is only the interrupt it
+            // sent, and its own failure is the one reported
+            fail(e);
+        } finally {
+            reader.interrupt();
+            writer.interrupt();
+            joinQuietly(reader);
+            joinQuietly(writer);
+            in.close();
+            out.close();
+        }
+        Throwable cause = failure;
+        if (cause != null) {
+            // Clear an interrupt sent by a failing stage
+            Thread.interrupted();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof InterruptedException)
+                throw new InterruptedIOException("Huffman pipeline was interrupted");
+            throw new IOException("Huffman pipeline failed", cause);
+        }
+    }
+
+    /**
+     * The reader stage
+     */
+    private void read(FileChannel in) {
+        try {
+            while (true) {
+                ByteBuffer buffer = emptyInput.take();
+                buffer.clear();
+                boolean eof = false;
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                buffer.flip();
+                if (buffer.hasRemaining())
+                    fullInput.put(buffer);
+                if (eof) {
+                    fullInput.put(END);
+                    return;
+                }
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * The encoder stage, which runs on the calling thread. Each input buffer
+     * is copied behind any bytes of a character left over from the one
+     * before, so the characters come out exactly as one InputStreamReader
+     * over the whole file would give them, and UTF-8 is decoded from a heap
+     * array, which is much faster than from a direct buffer.
+     */
+    private void encode(Codebook codebook, BitOutputStream bits) throws IOException, InterruptedException {
+        CharsetDecoder utf8 = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE + 8);
+        bytes.flip();
+        CharBuffer chars = CharBuffer.allocate(1 << 16);
+        while (true) {
+            ByteBuffer buffer = fullInput.take();
+            if (buffer == END)
+                break;
+            bytes.compact();
+            bytes.put(buffer);
+            bytes.flip();
+            emptyInput.put(buffer);
+            while (true) {
+                CoderResult result = utf8.decode(bytes, chars, false);
+                codebook.encode(bits, chars.array(), 0, chars.position());
+                chars.clear();
+                if (result.isUnderflow())
+                    break;
+            }
+        }
+        utf8.decode(bytes, chars, true);
+        utf8.flush(chars);
+        codebook.encode(bits, chars.array(), 0, chars.position());
+    }
+
+    /**
+     * The writer stage
+     */
+    private void write(FileChannel out) {
+        try {
+            while (true) {
+                ByteBuffer buffer = fullOutput.take();
+                if (buffer == END)
+                    return;
+                while (buffer.hasRemaining())
+                    out.write(buffer);
+                buffer.clear();
+                emptyOutput.put(buffer);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Records the first failure and stops every stage, since a stage blocked
+     * on a queue would otherwise wait forever for one which has died
+     */
+    private synchronized void fail(Throwable e) {
+        if (failure == null)
+            failure = e;
+        if (Thread.currentThread() != encoder)
+            encoder.interrupt();
+        if (reader != null && Thread.currentThread() != reader)
+            reader.interrupt();
+        if (writer != null && Thread.currentThread() != writer)
+            writer.interrupt();
+    }
+
+    private static void joinQuietly(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Copies what the BitOutputStream writes into output buffers, handing
+     * each one to the writer stage when it fills up
+     */
+    private class Sink extends OutputStream {
+        private ByteBuffer buffer;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                while (len > 0) {
+                    if (buffer == null)
+                        buffer = emptyOutput.take();
+                    int n = Math.min(len, buffer.remaining());
+                    buffer.put(b, off, n);
+                    off += n;
+                    len -= n;
+                    if (!buffer.hasRemaining())
+                        handOff();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Huffman pipeline was interrupted");
+            }
+        }
+
+        private void handOff() throws InterruptedException {
+            buffer.flip();
+            fullOutput.put(buffer);
+            buffer = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (buffer != null && buffer.position() > 0)
+                    handOff();
+                fullOutput.put(END);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Huffman pipeline was interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This class compares decoding 4 interleaved streams per block
+ * (InterleavedCoding) with decoding 1 stream per block and with
+ * MappedDecoder. It runs over input1.txt through input6.txt and any other
+ * files given as arguments.
+ */
+public class InterleavedBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %10s %12s %12s %12s %10s\n", "input", "bytes", "mapped MB/s", "1-stream",
+                "4-stream", "speedup");
+        File encoded = File.createTempFile("huffman-interleaved", ".enc");
+        File decoded = File.createTempFile("huffman-interleaved", ".dec");
+        encoded.deleteOnExit();
+        decoded.deleteOnExit();
+        String enc = encoded.getPath(), dec = decoded.getPath();
+        for (String input : Benchmarks.inputs(args)) {
+            long bytes = new File(input).length();
+            HuffmanCoding.encodeBytes(input, enc);
+            long mapped = Benchmarks.best(ROUNDS, () -> MappedDecoder.decode(enc, dec));
+
+            InterleavedCoding.encode(input, enc, InterleavedCoding.DEFAULT_BLOCK_SIZE, 1);
+            long one = Benchmarks.best(ROUNDS, () -> InterleavedCoding.decode(enc, dec));
+
+            InterleavedCoding.encode(input, enc, InterleavedCoding.DEFAULT_BLOCK_SIZE, InterleavedCoding.STREAMS);
+            long four = Benchmarks.best(ROUNDS, () -> InterleavedCoding.decode(enc, dec));
+            System.err.printf("%-20s %10d %12.1f %12.1f %12.1f %9.2fx\n", new File(input).getName(), bytes,
+                    Benchmarks.rate(bytes, mapped), Benchmarks.rate(bytes, one), Benchmarks.rate(bytes, four),
+                    (double) one / four);
+        }
+        encoded.delete();
+        decoded.delete();
+    }
+}
@@ -0,0 +1,321 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * This class encodes and decodes files with each block split into 4
+ * interleaved bitstreams. A block's input is cut into 4 nearly equal
+ * quarters, and each quarter is coded into its own bitstream. The decoder
+ * then advances all 4 streams in one loop: the bit position of one stream
+ * never depends on another, so the CPU can overlap the loads and table
+ * lookups of all 4 instead of waiting for each code to finish before the next
+ * one can start.
+ *
+ * The codebook has the same code lengths as the tree from makeSortedList and
+ * makeTree, laid out as canonical codes so that the header only needs the
+ * lengths. The file looks like this:
+ *
+ * <pre>
+ * header   32-bit magic "HUF4", 8-bit version, 8-bit stream count (1 or 4),
+ *          varint block size, varint total length, code lengths as in
+ *          HuffmanHeader, padded with zeroes to a whole byte
+ * blocks   for each block, the 32-bit byte length of each stream followed by
+ *          the streams, each padded with zeroes to a whole byte
+ * </pre>
+ *
+ * Every block except the last holds exactly block size input bytes. Files with
+ * a stream count of 1 hold ordinary single-stream blocks, which makes it easy
+ * to measure what interleaving gains.
+ */
+public class InterleavedCoding {
+    public static final int MAGIC = 0x48554634;
+    public static final int VERSION = 1;
+    public static final int STREAMS = 4;
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+    public static final int MAX_BLOCK_SIZE = 1 << 24;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Encodes a file as blocks of 4 interleaved streams
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encode(String inputFile, String encodedFile) throws IOException {
+        encode(inputFile, encodedFile, DEFAULT_BLOCK_SIZE, STREAMS);
+    }
+
+    /**
+     * Encodes a file as blocks of interleaved streams
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     * @param blockSize   The number of input bytes in each block, at most
+     *                    MAX_BLOCK_SIZE
+     * @param streams     The number of streams per block, 1 or 4
+     */
+    public static void encode(String inputFile, String encodedFile, int blockSize, int streams) throws IOException {
+        if (streams != 1 && streams != STREAMS)
+            throw new IllegalArgumentException("Streams must be 1 or " + STREAMS + ", not " + streams);
+        if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+            throw new IllegalArgumentException("Block size must be between 1 and " + MAX_BLOCK_SIZE);
+
+        long[] occ = HuffmanCoding.countBytes(inputFile);
+        long length = 0;
+        for (long count : occ)
+            length += count;
+        ArrayList<CharFreq> sortedList = HuffmanCoding.makeSortedList(occ);
+        Codebook codebook = sortedList.isEmpty() ? new Codebook(new byte[0])
+                : Codebook.fromTree(HuffmanCoding.makeTree(sortedList));
+
+        try (InputStream in = new FileInputStream(inputFile);
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(encodedFile), 1 << 16))) {
+            BitOutputStream header = new BitOutputStream(out);
+            header.writeBits(MAGIC, 32);
+            header.writeBits(VERSION, 8);
+            header.writeBits(streams, 8);
+            HuffmanHeader.writeVarint(header, blockSize);
+            HuffmanHeader.writeVarint(header, length);
+            HuffmanHeader.writeLengths(header, codebook);
+            header.flush();
+
+            byte[] block = new byte[blockSize];
+            ByteArrayOutputStream[] encoded = new ByteArrayOutputStream[streams];
+            for (int s = 0; s < streams; s++)
+                encoded[s] = new ByteArrayOutputStream(blockSize / streams / 2 + 16);
+            int count;
+            while ((count = readBlock(in, block)) > 0) {
+                for (int s = 0; s < streams; s++) {
+                    encoded[s].reset();
+                    BitOutputStream bits = new BitOutputStream(encoded[s]);
+                    codebook.encode(bits, block, start(count, streams, s), size(count, streams, s));
+                    bits.flush();
+                }
+                for (int s = 0; s < streams; s++)
+                    out.writeInt(encoded[s].size());
+                for (int s = 0; s < streams; s++)
+                    encoded[s].writeTo(out);
+            }
+        }
+    }
+
+    /**
+     * Decodes a file written by encode
+     *
+     * @param encodedFile The file to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        int streams;
+        long blockSize, length, headerBytes;
+        Codebook codebook;
+        try (InputStream file = new FileInputStream(encodedFile)) {
+            BitInputStream header = new BitInputStream(file, 1 << 12);
+            if (header.readBits(32) != MAGIC)
+                throw new IOException("Not an interleaved huffman file");
+            int version = (int) header.readBits(8);
+            if (version != VERSION)
+                throw new IOException("Unsupported interleaved huffman file version " + version);
+            streams = (int) header.readBits(8);
+            if (streams != 1 && streams != STREAMS)
+                throw new IOException("Corrupt interleaved huffman file, " + streams + " streams");
+            blockSize = HuffmanHeader.readVarint(header);
+            length = HuffmanHeader.readVarint(header);
+            if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+                throw new IOException("Corrupt interleaved huffman file, block size " + blockSize);
+            codebook = HuffmanHeader.readLengths(header);
+            // The decode loops store symbols as bytes
+            if (codebook.size() > 256)
+                throw new IOException("Corrupt interleaved huffman file, " + codebook.size() + " symbols");
+            headerBytes = (header.getBitCount() + 7) / 8;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(encodedFile), 1 << 16));
+                OutputStream out = new FileOutputStream(decodedFile)) {
+            in.skipNBytes(headerBytes);
+            TableDecoder decoder = length > 0 ? codebook.getDecoder() : null;
+            byte[] block = new byte[(int) Math.min(blockSize, length)];
+            byte[] encoded = new byte[0];
+            int[] sizes = new int[streams];
+            for (long done = 0; done < length;) {
+                int count = (int) Math.min(blockSize, length - done);
+                long total = 0;
+                for (int s = 0; s < streams; s++) {
+                    sizes[s] = in.readInt();
+                    if (sizes[s] < 0)
+                        throw new IOException("Corrupt interleaved huffman file, stream of " + sizes[s] + " bytes");
+                    total += sizes[s];
+                }
+                // No code is longer than 64 bits, which bounds the streams
+                if (total > 8L * count + streams)
+                    throw new IOException("Corrupt interleaved huffman file, " + total + " bytes for a block of "
+                            + count);
+                // 8 spare bytes let the last stream load whole longs near its
+                // end
+                if (encoded.length < total + 8)
+                    encoded = new byte[(int) total + 8];
+                in.readFully(encoded, 0, (int) total);
+
+                if (streams == STREAMS)
+                    decodeFour(decoder, encoded, sizes, block, count);
+                else
+                    decodeOne(decoder, encoded, sizes[0], block, count);
+                out.write(block, 0, count);
+                done += count;
+            }
+        }
+    }
+
+    /**
+     * Decodes the 4 streams of a block in one loop, one symbol from each per
+     * round
+     */
+    private static void decodeFour(TableDecoder decoder, byte[] in, int[] sizes, byte[] out, int count)
+            throws IOException {
+        int[] table = decoder.getTable();
+        int rootBits = decoder.getRootBits();
+        int shift = 64 - rootBits;
+
+        long p0 = 0;
+        long p1 = p0 + 8L * sizes[0];
+        long p2 = p1 + 8L * sizes[1];
+        long p3 = p2 + 8L * sizes[2];
+        long end = p3 + 8L * sizes[3];
+        int o0 = start(count, STREAMS, 0), o1 = start(count, STREAMS, 1);
+        int o2 = start(count, STREAMS, 2), o3 = start(count, STREAMS, 3);
+
+        // Every stream has at least count / 4 symbols, so that many rounds
+        // can run all four streams side by side
+        int rounds = count / STREAMS;
+        for (int i = 0; i < rounds; i++) {
+            int e0 = table[(int) (load(in, p0) >>> shift)];
+            int e1 = table[(int) (load(in, p1) >>> shift)];
+            int e2 = table[(int) (load(in, p2) >>> shift)];
+            int e3 = table[(int) (load(in, p3) >>> shift)];
+            // Entries which finish a code in the root table and use at least
+            // one bit take the fast path. The rest, including the empty
+            // slots of an incomplete code set, go through step.
+            if ((e0 | e1 | e2 | e3) >= 0 && (e0 & 31) != 0 && (e1 & 31) != 0 && (e2 & 31) != 0
+                    && (e3 & 31) != 0) {
+                out[o0 + i] = (byte) (e0 >>> 5);
+                out[o1 + i] = (byte) (e1 >>> 5);
+                out[o2 + i] = (byte) (e2 >>> 5);
+                out[o3 + i] = (byte) (e3 >>> 5);
+                p0 += e0 & 31;
+                p1 += e1 & 31;
+                p2 += e2 & 31;
+                p3 += e3 & 31;
+            } else {
+                p0 = step(table, rootBits, in, p0, e0, out, o0 + i);
+                p1 = step(table, rootBits, in, p1, e1, out, o1 + i);
+                p2 = step(table, rootBits, in, p2, e2, out, o2 + i);
+                p3 = step(table, rootBits, in, p3, e3, out, o3 + i);
+            }
+        }
+
+        // The first count % 4 streams have one symbol more
+        int extra = count % STREAMS;
+        if (extra > 0)
+            p0 = step(table, rootBits, in, p0, table[(int) (load(in, p0) >>> shift)], out, o0 + rounds);
+        if (extra > 1)
+            p1 = step(table, rootBits, in, p1, table[(int) (load(in, p1) >>> shift)], out, o1 + rounds);
+        if (extra > 2)
+            p2 = step(table, rootBits, in, p2, table[(int) (load(in, p2) >>> shift)], out, o2 + rounds);
+
+        if (p0 > 8L * sizes[0] || p1 > 8L * (sizes[0] + sizes[1])
+                || p2 > 8L * (sizes[0] + sizes[1] + sizes[2]) || p3 > end)
+            throw new IOException("Corrupt interleaved huffman file, a stream overran its length");
+    }
+
+    /**
+     * Decodes a single-stream block with the same loads and lookups as
+     * decodeFour, for comparison
+     */
+    private static void decodeOne(TableDecoder decoder, byte[] in, int size, byte[] out, int count)
+            throws IOException {
+        int[] table = decoder.getTable();
+        int rootBits = decoder.getRootBits();
+        int shift = 64 - rootBits;
+        long p = 0;
+        for (int i = 0; i < count; i++) {
+            int e = table[(int) (load(in, p) >>> shift)];
+            if (e >= 0 && (e & 31) != 0) {
+                out[i] = (byte) (e >>> 5);
+                p += e & 31;
+            } else {
+                p = step(table, rootBits, in, p, e, out, i);
+            }
+        }
+        if (p > 8L * size)
+            throw new IOException("Corrupt interleaved huffman file, the stream overran its length");
+    }
+
+    /**
+     * Finishes decoding one code whose root table entry is already known,
+     * following links into secondary tables
+     *
+     * @return The bit position after the code
+     */
+    private static long step(int[] table, int rootBits, byte[] in, long position, int entry, byte[] out,
+            int index) throws IOException {
+        int bits = rootBits;
+        while (entry < 0) {
+            position += bits;
+            entry = ~entry;
+            bits = entry & 31;
+            entry = table[(entry >>> 5) + (int) (load(in, position) >>> (64 - bits))];
+        }
+        if ((entry & 31) == 0)
+            throw new IOException("Corrupt interleaved huffman file, no code matches");
+        out[index] = (byte) (entry >>> 5);
+        return position + (entry & 31);
+    }
+
+    /**
+     * Loads the 64 bits starting at a bit position, left-aligned. At least 57
+     * of them come from the array.
+     */
+    private static long load(byte[] in, long position) {
+        int index = (int) (position >>> 3);
+        if (index > in.length - 8)
+            return 0;
+        return (long) LONGS.get(in, index) << (position & 7);
+    }
+
+    // Where stream s starts in a block of count bytes
+    private static int start(int count, int streams, int s) {
+        return s * (count / streams) + Math.min(s, count % streams);
+    }
+
+    // How many bytes of a block of count bytes go into stream s
+    private static int size(int count, int streams, int s) {
+        return count / streams + (s < count % streams ? 1 : 0);
+    }
+
+    private static int readBlock(InputStream in, byte[] block) throws IOException {
+        int count = 0;
+        while (count < block.length) {
+            int n = in.read(block, count, block.length - count);
+            if (n < 0)
+                break;
+            count += n;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,47 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class reports how much longer the encoding of a file becomes when its
+ * codes are limited to 8, 11 and 15 bits, compared to unlimited huffman
+ * codes, and how long package-merge takes to find the limited lengths. It
+ * runs over input1.txt through input6.txt and any other files given as
+ * arguments.
+ */
+public class LengthLimitedBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int[] LIMITS = { 8, 11, 15 };
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %8s %8s %14s %10s %10s\n", "input", "longest", "limit", "bits", "larger",
+                "us/build");
+        for (String input : Benchmarks.inputs(args)) {
+            long[] occ = HuffmanCoding.countChars(input);
+            byte[] unlimited = HuffmanCoding.makeCodebook(occ).getLengths();
+            long unlimitedBits = LengthLimitedCodes.encodedBits(occ, Arrays.copyOf(unlimited, occ.length));
+            int longest = 0;
+            for (byte len : unlimited)
+                longest = Math.max(longest, len);
+
+            int used = 0;
+            for (long count : occ) {
+                if (count > 0)
+                    used++;
+            }
+            String name = new File(input).getName();
+            for (int maxLength : LIMITS) {
+                if (used > 1L << maxLength) {
+                    System.err.printf("%-20s %8d %8d %14s\n", name, longest, maxLength, "too short");
+                    continue;
+                }
+                long bits = LengthLimitedCodes.encodedBits(occ, LengthLimitedCodes.lengths(occ, maxLength));
+                long nanos = Benchmarks.best(ROUNDS, () -> LengthLimitedCodes.lengths(occ, maxLength));
+                System.err.printf("%-20s %8d %8d %14d %9.4f%% %10.1f\n", name, longest, maxLength, bits,
+                        100.0 * (bits - unlimitedBits) / Math.max(unlimitedBits, 1), nanos / 1e3);
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * This class computes optimal prefix code lengths which are no longer than a
+ * given limit, using the package-merge algorithm. Capping the length keeps
+ * lookup tables small and lets every code fit in a bit buffer, at the cost of
+ * a slightly longer encoding on very skewed inputs.
+ *
+ * Package-merge works level by level from the deepest allowed length up. At
+ * each level the items of the level below are paired into packages, and the
+ * packages are merged with the original symbols in order of weight. Taking
+ * the 2n - 2 lightest items at the top level, each symbol's code length is
+ * the number of levels at which it is among the items taken.
+ */
+public class LengthLimitedCodes {
+    /**
+     * Computes length-limited code lengths
+     *
+     * @param weights   The weight of each symbol, all greater than 0
+     * @param maxLength The longest code allowed
+     * @return The code length of each symbol, in the same order as weights
+     */
+    public static int[] lengths(double[] weights, int maxLength) {
+        int n = weights.length;
+        if (maxLength < 1 || maxLength > Codebook.MAX_CODE_LENGTH)
+            throw new IllegalArgumentException("Invalid maximum code length " + maxLength);
+        if (maxLength < 63 && n > 1L << maxLength)
+            throw new IllegalArgumentException(n + " symbols cannot have codes of at most " + maxLength + " bits");
+
+        int[] lengths = new int[n];
+        if (n == 0)
+            return lengths;
+        if (n == 1) {
+            lengths[0] = 1;
+            return lengths;
+        }
+
+        // Sort symbols from lightest to heaviest
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(weights[a], weights[b]));
+        double[] sorted = new double[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = weights[order[i]];
+
+        // Only the levels where a code could actually end are worth building
+        int levels = Math.min(maxLength, n - 1);
+
+        // isLeaf[level][i] says whether item i of that level's merged list is
+        // an original symbol or a package of two items from the level below
+        boolean[][] isLeaf = new boolean[levels][];
+        double[] items = sorted.clone();
+        isLeaf[levels - 1] = new boolean[n];
+        Arrays.fill(isLeaf[levels - 1], true);
+
+        for (int level = levels - 2; level >= 0; level--) {
+            int packages = items.length / 2;
+            double[] merged = new double[n + packages];
+            boolean[] leaf = new boolean[n + packages];
+            int s = 0, p = 0;
+            for (int i = 0; i < merged.length; i++) {
+                double packageWeight = p < packages ? items[2 * p] + items[2 * p + 1] : Double.MAX_VALUE;
+                if (s < n && sorted[s] <= packageWeight) {
+                    merged[i] = sorted[s++];
+                    leaf[i] = true;
+                } else {
+                    merged[i] = packageWeight;
+                    p++;
+                }
+            }
+            items = merged;
+            isLeaf[level] = leaf;
+        }
+
+        // Walk back down, counting how many times each symbol is taken. The
+        // symbols among the first m items are always the lightest ones, and
+        // the packages among them are always built from the first items of
+        // the level below.
+        int take = 2 * n - 2;
+        for (int level = 0; level < levels && take > 0; level++) {
+            int leaves = 0;
+            for (int i = 0; i < take; i++) {
+                if (isLeaf[level][i])
+                    leaves++;
+            }
+            for (int i = 0; i < leaves; i++)
+                lengths[order[i]]++;
+            take = 2 * (take - leaves);
+        }
+        return lengths;
+    }
+
+    /**
+     * Computes length-limited code lengths for a table of symbol counts
+     *
+     * @param occ       Array indexed by symbol, holding how often each occurs
+     * @param maxLength The longest code allowed
+     * @return Array indexed by symbol holding code lengths, 0 for symbols
+     *         which never occur
+     */
+    public static byte[] lengths(long[] occ, int maxLength) {
+        int used = countUsed(occ);
+        double[] weights = new double[used];
+        int[] symbols = new int[used];
+        for (int s = 0, i = 0; s < occ.length; s++) {
+            if (occ[s] > 0) {
+                weights[i] = occ[s];
+                symbols[i++] = s;
+            }
+        }
+
+        int[] limited = lengths(weights, maxLength);
+        byte[] lengths = new byte[occ.length];
+        for (int i = 0; i < used; i++)
+            lengths[symbols[i]] = (byte) limited[i];
+        return lengths;
+    }
+
+    private static int countUsed(long[] occ) {
+        int used = 0;
+        for (long count : occ) {
+            if (count > 0)
+                used++;
+        }
+        return used;
+    }
+
+    /**
+     * Works out the number of bits needed to encode every symbol with the
+     * given code lengths
+     *
+     * @param occ     Array indexed by symbol, holding how often each occurs
+     * @param lengths Array indexed by symbol, holding code lengths
+     * @return The total encoded length in bits
+     */
+    public static long encodedBits(long[] occ, byte[] lengths) {
+        long bits = 0;
+        for (int s = 0; s < occ.length; s++) {
+            if (occ[s] > 0)
+                bits += occ[s] * lengths[s];
+        }
+        return bits;
+    }
+}
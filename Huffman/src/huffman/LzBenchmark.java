@@ -0,0 +1,114 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class compares both levels of LzCoding with java.util.zip.Deflater at
+ * its fastest and default levels on compression ratio and throughput. It runs
+ * over input1.txt through input6.txt and any other files given as arguments,
+ * coding in memory so that only the codecs are timed. Each LzCoding encoding
+ * is also checked to fail, rather than write output forever, when it is cut
+ * short by a byte, by 100 bytes and by half.
+ */
+public class LzBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %-18s %8s %12s %12s\n", "input", "codec", "ratio", "encode MB/s", "decode MB/s");
+        for (String file : Benchmarks.inputs(args)) {
+            byte[] input = Files.readAllBytes(Paths.get(file));
+            String name = new File(file).getName();
+            for (int level : new int[] { LzCoding.FAST, LzCoding.STRONG })
+                runLz(name, input, level);
+            for (int level : new int[] { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION })
+                runDeflater(name, input, level);
+        }
+    }
+
+    private static void runLz(String name, byte[] input, int level) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 64);
+        long encodeNanos = Benchmarks.best(ROUNDS, () -> {
+            out.reset();
+            LzCoding.encode(new ByteArrayInputStream(input), out, input.length, level);
+        });
+        byte[] encoded = out.toByteArray();
+
+        ByteArrayOutputStream back = new ByteArrayOutputStream(input.length);
+        long decodeNanos = Benchmarks.best(ROUNDS, () -> {
+            back.reset();
+            LzCoding.decode(new BufferedInputStream(new ByteArrayInputStream(encoded)), back);
+        });
+        if (!Arrays.equals(back.toByteArray(), input))
+            throw new IllegalStateException("LZ level " + level + " did not round trip");
+        checkTruncated(encoded, level);
+        report(name, level == LzCoding.FAST ? "LzCoding FAST" : "LzCoding STRONG", input.length, encoded.length,
+                encodeNanos, decodeNanos);
+    }
+
+    private static void runDeflater(String name, byte[] input, int level) throws IOException {
+        byte[] buffer = new byte[input.length + input.length / 8 + 64];
+        int[] encodedLength = new int[1];
+        long encodeNanos = Benchmarks.best(ROUNDS, () -> {
+            Deflater deflater = new Deflater(level, true);
+            deflater.setInput(input);
+            deflater.finish();
+            encodedLength[0] = 0;
+            while (!deflater.finished())
+                encodedLength[0] += deflater.deflate(buffer, encodedLength[0], buffer.length - encodedLength[0]);
+            deflater.end();
+        });
+
+        byte[] back = new byte[input.length];
+        long decodeNanos = Benchmarks.best(ROUNDS, () -> {
+            Inflater inflater = new Inflater(true);
+            inflater.setInput(buffer, 0, encodedLength[0]);
+            try {
+                int n = 0;
+                while (n < back.length && !inflater.finished())
+                    n += inflater.inflate(back, n, back.length - n);
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        });
+        if (!Arrays.equals(back, input))
+            throw new IllegalStateException("Deflater did not round trip");
+        report(name, level == Deflater.BEST_SPEED ? "Deflater level 1" : "Deflater level 6", input.length,
+                encodedLength[0], encodeNanos, decodeNanos);
+    }
+
+    /**
+     * Makes sure that decoding a copy of encoded cut short by a byte, by 100
+     * bytes and by half fails rather than writing output forever
+     */
+    private static void checkTruncated(byte[] encoded, int level) {
+        for (int cut : new int[] { 1, 100, encoded.length / 2 }) {
+            if (cut <= 0 || cut >= encoded.length)
+                continue;
+            try {
+                LzCoding.decode(new ByteArrayInputStream(encoded, 0, encoded.length - cut),
+                        new ByteArrayOutputStream());
+            } catch (IOException e) {
+                continue;
+            }
+            throw new IllegalStateException("LZ level " + level + " decoded a file missing " + cut + " bytes");
+        }
+    }
+
+    private static void report(String name, String codec, long original, long encoded, long encodeNanos,
+            long decodeNanos) {
+        System.err.printf("%-20s %-18s %7.2fx %12.1f %12.1f\n", name, codec, (double) original / Math.max(encoded, 1),
+                Benchmarks.rate(original, encodeNanos), Benchmarks.rate(original, decodeNanos));
+    }
+}
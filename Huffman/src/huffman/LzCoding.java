@@ -0,0 +1,528 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class compresses files the way DEFLATE does: an LZ77 pass first
+ * replaces repeated strings with (length, distance) matches pointing back
+ * into a sliding window, and the literals, lengths and distances that are
+ * left are then huffman coded. Repetitive data such as logs shrinks far more
+ * this way than with order-0 huffman coding alone.
+ *
+ * Matches are found with hash chains: every position is filed under a hash of
+ * its next 3 bytes, and each position remembers the previous one with the
+ * same hash. There are two levels:
+ *
+ * <pre>
+ * FAST     8 KB window, short chains, and the first good match is taken
+ * STRONG   32 KB window, long chains, and lazy matching: a match is put off
+ *          by a byte whenever the next position has a longer one
+ * </pre>
+ *
+ * Lengths and distances use DEFLATE's symbols and extra bits. Symbols 0 to 255
+ * are literals, 256 ends a block, and 257 to 285 are lengths; distances have
+ * their own alphabet of 30 symbols. Each block gets its own two codebooks,
+ * built from its symbol counts with makeSortedList and makeTree. The file
+ * looks like this:
+ *
+ * <pre>
+ * header   32-bit magic "HUFZ", 8-bit version, 8-bit level, varint length
+ * blocks   for each block, the literal/length code lengths and the distance
+ *          code lengths as in HuffmanHeader, then the block's codes, each
+ *          length and distance followed by its extra bits, then the code for
+ *          256. The last block is padded with zeroes to a whole byte.
+ * </pre>
+ */
+public class LzCoding {
+    public static final int MAGIC = 0x4855465A;
+    public static final int VERSION = 1;
+    public static final int FAST = 1;
+    public static final int STRONG = 2;
+
+    public static final int MIN_MATCH = 3;
+    public static final int MAX_MATCH = 258;
+    public static final int MAX_WINDOW = 1 << 15;
+
+    private static final int END = 256;
+    private static final int LITERAL_LENGTH_SYMBOLS = 286;
+    private static final int DISTANCE_SYMBOLS = 30;
+
+    // Input bytes covered by one block, and so by one pair of codebooks
+    private static final int BLOCK_SIZE = 1 << 18;
+    // New input read at a time
+    private static final int CHUNK = 1 << 18;
+
+    private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51,
+            59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4,
+            4, 5, 5, 5, 5, 0 };
+    private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385,
+            513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9,
+            10, 10, 11, 11, 12, 12, 13, 13 };
+
+    // Symbol index for every match length and distance
+    private static final byte[] LENGTH_CODE = new byte[MAX_MATCH + 1];
+    private static final byte[] DISTANCE_CODE = new byte[MAX_WINDOW + 1];
+
+    static {
+        for (int code = 0; code < LENGTH_BASE.length; code++) {
+            for (int length = LENGTH_BASE[code]; length < LENGTH_BASE[code] + (1 << LENGTH_EXTRA[code])
+                    && length <= MAX_MATCH; length++)
+                LENGTH_CODE[length] = (byte) code;
+        }
+        // 258 has a symbol of its own rather than being 227 plus 31
+        LENGTH_CODE[MAX_MATCH] = (byte) (LENGTH_BASE.length - 1);
+        for (int code = 0; code < DISTANCE_BASE.length; code++) {
+            for (int distance = DISTANCE_BASE[code]; distance < DISTANCE_BASE[code] + (1 << DISTANCE_EXTRA[code])
+                    && distance <= MAX_WINDOW; distance++)
+                DISTANCE_CODE[distance] = (byte) code;
+        }
+    }
+
+    /**
+     * Encodes a file at the STRONG level
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     */
+    public static void encode(String inputFile, String encodedFile) throws IOException {
+        encode(inputFile, encodedFile, STRONG);
+    }
+
+    /**
+     * Encodes a file
+     *
+     * @param inputFile   The file which is to be encoded
+     * @param encodedFile The file name into which the input is to be encoded
+     * @param level       FAST or STRONG
+     */
+    public static void encode(String inputFile, String encodedFile, int level) throws IOException {
+        InputStream in = new FileInputStream(inputFile);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(encodedFile), 1 << 16);
+        try {
+            encode(in, out, Files.size(Paths.get(inputFile)), level);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Encodes a stream. The length goes in the header, so it has to be known
+     * up front.
+     *
+     * @param in     The bytes to encode
+     * @param out    The stream to write the encoded bytes to, which is not
+     *               closed
+     * @param length The number of bytes in
+     * @param level  FAST or STRONG
+     */
+    public static void encode(InputStream in, OutputStream out, long length, int level) throws IOException {
+        if (level != FAST && level != STRONG)
+            throw new IllegalArgumentException("Level must be FAST or STRONG, not " + level);
+        BitOutputStream bits = new BitOutputStream(out);
+        bits.writeBits(MAGIC, 32);
+        bits.writeBits(VERSION, 8);
+        bits.writeBits(level, 8);
+        HuffmanHeader.writeVarint(bits, length);
+        long read = new Encoder(level, bits).run(in);
+        if (read != length)
+            throw new IOException("Expected " + length + " bytes but read " + read);
+        bits.flush();
+    }
+
+    /**
+     * Decodes a file written by encode
+     *
+     * @param encodedFile The file to decode
+     * @param decodedFile The file which you want to decode into
+     */
+    public static void decode(String encodedFile, String decodedFile) throws IOException {
+        InputStream in = new FileInputStream(encodedFile);
+        OutputStream out = new FileOutputStream(decodedFile);
+        try {
+            decode(in, out);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Decodes a stream written by encode
+     *
+     * @param in  The encoded bytes
+     * @param out The stream to write the decoded bytes to, which is not
+     *            closed
+     */
+    public static void decode(InputStream in, OutputStream out) throws IOException {
+        BitInputStream bits = new BitInputStream(in, 1 << 16);
+        if (bits.readBits(32) != MAGIC)
+            throw new IOException("Not an LZ huffman file");
+        int version = (int) bits.readBits(8);
+        if (version != VERSION)
+            throw new IOException("Unsupported LZ huffman file version " + version);
+        int level = (int) bits.readBits(8);
+        if (level != FAST && level != STRONG)
+            throw new IOException("Corrupt LZ huffman file, level " + level);
+        long length = HuffmanHeader.readVarint(bits);
+
+        // The window holds the last MAX_WINDOW bytes for matches to copy from,
+        // followed by bytes not yet written out, from unwritten on
+        byte[] window = new byte[2 * MAX_WINDOW + CHUNK];
+        int filled = 0, unwritten = 0;
+        long done = 0;
+        while (done < length) {
+            Codebook literals = HuffmanHeader.readLengths(bits);
+            Codebook distances = HuffmanHeader.readLengths(bits);
+            if (literals.size() > LITERAL_LENGTH_SYMBOLS || literals.getCodeLength(END) == 0)
+                throw new IOException("Corrupt LZ huffman file, bad literal/length codes");
+            TableDecoder literalDecoder = literals.getDecoder();
+            TableDecoder distanceDecoder = distances.size() > 0 ? distances.getDecoder() : null;
+
+            while (true) {
+                if (filled > window.length - MAX_MATCH) {
+                    out.write(window, unwritten, filled - unwritten);
+                    System.arraycopy(window, filled - MAX_WINDOW, window, 0, MAX_WINDOW);
+                    filled = MAX_WINDOW;
+                    unwritten = MAX_WINDOW;
+                }
+                // Past the end of the input the reader returns zero bits,
+                // which would otherwise keep decoding as literals
+                if (!bits.hasMoreBits())
+                    throw new IOException(
+                            "Corrupt LZ huffman file, it ends after " + done + " of " + length + " bytes");
+                int symbol = literalDecoder.decodeSymbol(bits);
+                if (symbol < END) {
+                    if (done >= length)
+                        throw new IOException("Corrupt LZ huffman file, too many bytes");
+                    window[filled++] = (byte) symbol;
+                    done++;
+                    continue;
+                }
+                if (symbol == END)
+                    break;
+
+                int code = symbol - END - 1;
+                if (code >= LENGTH_BASE.length || distanceDecoder == null)
+                    throw new IOException("Corrupt LZ huffman file, bad length symbol " + symbol);
+                int matchLength = LENGTH_BASE[code] + extra(bits, LENGTH_EXTRA[code]);
+                code = distanceDecoder.decodeSymbol(bits);
+                if (code >= DISTANCE_SYMBOLS)
+                    throw new IOException("Corrupt LZ huffman file, bad distance symbol " + code);
+                int distance = DISTANCE_BASE[code] + extra(bits, DISTANCE_EXTRA[code]);
+                if (distance > filled || done + matchLength > length)
+                    throw new IOException("Corrupt LZ huffman file, match out of range");
+
+                int from = filled - distance;
+                if (distance >= matchLength) {
+                    System.arraycopy(window, from, window, filled, matchLength);
+                } else {
+                    // An overlapping match repeats the bytes it is copying
+                    for (int i = 0; i < matchLength; i++)
+                        window[filled + i] = window[from + i];
+                }
+                filled += matchLength;
+                done += matchLength;
+            }
+            if (done > length)
+                throw new IOException("Corrupt LZ huffman file, too many bytes");
+            // A file cut inside the block's END code still finds the END in
+            // the zeroes read past the end of the input
+            if (bits.isOverrun())
+                throw new IOException("Corrupt LZ huffman file, it ends inside a block");
+        }
+        out.write(window, unwritten, filled - unwritten);
+    }
+
+    private static int extra(BitInputStream bits, int n) throws IOException {
+        return n == 0 ? 0 : (int) bits.readBits(n);
+    }
+
+    /**
+     * This class finds matches in one input stream and writes them out a
+     * block at a time
+     */
+    private static class Encoder {
+        private final BitOutputStream out;
+        private final boolean lazy;
+        private final int windowSize;
+        private final int maxChain;
+        private final int niceLength;
+        private final int lazyLength;
+        private final int hashShift;
+
+        // Input, with at least windowSize bytes of history before the
+        // current position once there is that much
+        private final byte[] data;
+        private int filled;
+        private boolean eof;
+
+        // Most recent position for each hash, and the previous position with
+        // the same hash for each position in the window, or -1
+        private final int[] head;
+        private final int[] prev;
+
+        // The current block: literal bytes, or length << 16 | distance
+        private final int[] tokens = new int[BLOCK_SIZE];
+        private int tokenCount;
+        private int blockBytes;
+
+        Encoder(int level, BitOutputStream out) {
+            this.out = out;
+            lazy = level == STRONG;
+            windowSize = level == STRONG ? MAX_WINDOW : 1 << 13;
+            maxChain = level == STRONG ? 128 : 8;
+            niceLength = level == STRONG ? 128 : 32;
+            lazyLength = level == STRONG ? 16 : 0;
+            int hashBits = level == STRONG ? 16 : 14;
+            hashShift = 32 - hashBits;
+            data = new byte[2 * windowSize + CHUNK];
+            head = new int[1 << hashBits];
+            prev = new int[windowSize];
+            Arrays.fill(head, -1);
+        }
+
+        /**
+         * Encodes everything in a stream
+         *
+         * @return The number of bytes read
+         */
+        long run(InputStream in) throws IOException {
+            long total = 0;
+            int p = 0;
+            int pendingLength = 0, pendingDistance = 0;
+            boolean pending = false;
+
+            while (true) {
+                if (filled - p < MAX_MATCH + 1 && !eof) {
+                    p -= slide(p);
+                    total += fill(in);
+                }
+                if (p >= filled)
+                    break;
+
+                // Look for a match here, unless a pending match is already
+                // long enough that a longer one is not worth the search
+                int length = 0, distance = 0;
+                int hash = hashAt(p);
+                if (hash >= 0) {
+                    int candidate = head[hash];
+                    prev[p & (windowSize - 1)] = candidate;
+                    head[hash] = p;
+                    if (!pending || pendingLength < lazyLength) {
+                        int best = longestMatch(p, candidate, Math.max(pending ? pendingLength : 0, MIN_MATCH - 1));
+                        if (best > 0) {
+                            length = best >>> 16;
+                            distance = best & 0xFFFF;
+                        }
+                    }
+                }
+
+                if (!lazy) {
+                    if (length >= MIN_MATCH) {
+                        match(length, distance);
+                        // Filing every position of a long match costs more than
+                        // the matches it would find
+                        if (length <= niceLength)
+                            insert(p + 1, p + length);
+                        p += length;
+                    } else {
+                        literal(data[p]);
+                        p++;
+                    }
+                    continue;
+                }
+
+                if (pending && pendingLength >= MIN_MATCH && length <= pendingLength) {
+                    // The match from the last position is at least as good,
+                    // so take it
+                    match(pendingLength, pendingDistance);
+                    insert(p + 1, p - 1 + pendingLength);
+                    p += pendingLength - 1;
+                    pending = false;
+                    continue;
+                }
+                if (pending)
+                    literal(data[p - 1]);
+                pending = true;
+                pendingLength = length;
+                pendingDistance = distance;
+                p++;
+            }
+            if (pending) {
+                if (pendingLength >= MIN_MATCH)
+                    match(pendingLength, pendingDistance);
+                else
+                    literal(data[p - 1]);
+            }
+            if (tokenCount > 0)
+                writeBlock();
+            return total;
+        }
+
+        /**
+         * @return The hash of the 3 bytes at p, or -1 if there are not 3
+         */
+        private int hashAt(int p) {
+            if (p + MIN_MATCH > filled)
+                return -1;
+            int key = (data[p] & 0xFF) << 16 | (data[p + 1] & 0xFF) << 8 | (data[p + 2] & 0xFF);
+            return (key * 0x9E3779B1) >>> hashShift;
+        }
+
+        /**
+         * Files positions from start up to but not including end in the hash
+         * chains without looking for matches
+         */
+        private void insert(int start, int end) {
+            for (int p = start; p < end; p++) {
+                int hash = hashAt(p);
+                if (hash < 0)
+                    return;
+                prev[p & (windowSize - 1)] = head[hash];
+                head[hash] = p;
+            }
+        }
+
+        /**
+         * Walks the hash chain from candidate looking for the longest match
+         * at p which is longer than atLeast
+         *
+         * @return length << 16 | distance, or 0 if there is none
+         */
+        private int longestMatch(int p, int candidate, int atLeast) {
+            byte[] data = this.data;
+            int limit = Math.max(p - windowSize, -1);
+            int maxLength = Math.min(MAX_MATCH, filled - p);
+            int bestLength = atLeast, bestDistance = 0;
+            // A match good enough already only gets a quick look for better
+            int chain = atLeast >= 8 ? maxChain >> 2 : maxChain;
+            for (; candidate > limit && chain > 0; chain--) {
+                // Only compare the whole string when it could beat the best
+                if (bestLength < maxLength && data[candidate + bestLength] == data[p + bestLength]) {
+                    int length = Arrays.mismatch(data, candidate, candidate + maxLength, data, p, p + maxLength);
+                    if (length < 0)
+                        length = maxLength;
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = p - candidate;
+                        if (length >= niceLength || length == maxLength)
+                            break;
+                    }
+                }
+                int next = prev[candidate & (windowSize - 1)];
+                // Entries older than the window may have been overwritten by
+                // newer positions, which would make the chain loop
+                if (next >= candidate)
+                    break;
+                candidate = next;
+            }
+            return bestDistance == 0 ? 0 : bestLength << 16 | bestDistance;
+        }
+
+        /**
+         * Moves the window down so that at most about two windows of history
+         * stay in front of p. Positions only ever move by whole windows, so
+         * p & (windowSize - 1) still finds the same chain entry.
+         *
+         * @return How far everything moved
+         */
+        private int slide(int p) {
+            if (filled + CHUNK <= data.length)
+                return 0;
+            int shift = (p - windowSize) / windowSize * windowSize;
+            System.arraycopy(data, shift, data, 0, filled - shift);
+            filled -= shift;
+            for (int i = 0; i < head.length; i++)
+                head[i] = head[i] >= shift ? head[i] - shift : -1;
+            for (int i = 0; i < prev.length; i++)
+                prev[i] = prev[i] >= shift ? prev[i] - shift : -1;
+            return shift;
+        }
+
+        // Reads until the buffer is full or the input ends
+        private int fill(InputStream in) throws IOException {
+            int start = filled;
+            while (filled < data.length) {
+                int n = in.read(data, filled, data.length - filled);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                filled += n;
+            }
+            return filled - start;
+        }
+
+        private void literal(byte b) throws IOException {
+            tokens[tokenCount++] = b & 0xFF;
+            if (++blockBytes >= BLOCK_SIZE)
+                writeBlock();
+        }
+
+        private void match(int length, int distance) throws IOException {
+            tokens[tokenCount++] = length << 16 | distance;
+            blockBytes += length;
+            if (blockBytes >= BLOCK_SIZE)
+                writeBlock();
+        }
+
+        /**
+         * Builds codebooks for the block's symbols and writes the block
+         */
+        private void writeBlock() throws IOException {
+            long[] literalOcc = new long[LITERAL_LENGTH_SYMBOLS];
+            long[] distanceOcc = new long[DISTANCE_SYMBOLS];
+            int[] tokens = this.tokens;
+            for (int i = 0; i < tokenCount; i++) {
+                int token = tokens[i];
+                if (token <= 0xFF) {
+                    literalOcc[token]++;
+                } else {
+                    literalOcc[END + 1 + LENGTH_CODE[token >>> 16]]++;
+                    distanceOcc[DISTANCE_CODE[token & 0xFFFF]]++;
+                }
+            }
+            literalOcc[END]++;
+            Codebook literals = codebook(literalOcc);
+            Codebook distances = codebook(distanceOcc);
+            HuffmanHeader.writeLengths(out, literals);
+            HuffmanHeader.writeLengths(out, distances);
+
+            for (int i = 0; i < tokenCount; i++) {
+                int token = tokens[i];
+                if (token <= 0xFF) {
+                    literals.encodeSymbol(out, token);
+                    continue;
+                }
+                int length = token >>> 16, distance = token & 0xFFFF;
+                int code = LENGTH_CODE[length];
+                literals.encodeSymbol(out, END + 1 + code);
+                out.writeBits(length - LENGTH_BASE[code], LENGTH_EXTRA[code]);
+                code = DISTANCE_CODE[distance];
+                distances.encodeSymbol(out, code);
+                out.writeBits(distance - DISTANCE_BASE[code], DISTANCE_EXTRA[code]);
+            }
+            literals.encodeSymbol(out, END);
+            tokenCount = 0;
+            blockBytes = 0;
+        }
+
+        private static Codebook codebook(long[] occ) {
+            ArrayList<CharFreq> sortedList = HuffmanCoding.makeSortedList(occ);
+            return sortedList.isEmpty() ? new Codebook(new byte[0])
+                    : Codebook.fromTree(HuffmanCoding.makeTree(sortedList));
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package huffman;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class decodes encoded files straight out of memory-mapped buffers.
+ * Instead of going through a BitInputStream, each code is found by loading
+ * the 8 bytes it starts in as one long and indexing the TableDecoder's tables
+ * with its top bits. Decoded symbols are collected in a large output buffer
+ * and written out in big pieces.
+ *
+ * Files are mapped one segment at a time, so encoded files larger than 2 GB
+ * work too.
+ */
+public class MappedDecoder {
+    private static final long SEGMENT_SIZE = 1L << 30;
+    private static final int CHUNK = 1 << 16;
+    private static final int OUTPUT_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private ByteBuffer segment;
+    private long segmentStart;
+
+    // Bit position in the whole file of the next code
+    private long bitPosition;
+
+    private final int[] symbols = new int[CHUNK];
+    private final byte[] output = new byte[OUTPUT_SIZE + 8];
+    private int outputCount;
+    private OutputStream out;
+    private int highSurrogate = -1;
+
+    private MappedDecoder(String encodedFile) throws IOException {
+        channel = FileChannel.open(Paths.get(encodedFile), StandardOpenOption.READ);
+        fileSize = channel.size();
+    }
+
+    /**
+     * Decodes a file written by HuffmanCoding.encode, encodeBytes, or
+     * encodeCodePoints
+     *
+     * @param encodedFile The self-describing file to decode
+     * @param decodedFile The file which you want to decode into
+     * @return The number of symbols decoded
+     */
+    public static long decode(String encodedFile, String decodedFile) throws IOException {
+        // The header is small, so it is parsed through a BitInputStream which
+        // also says how many bits it took
+        BitInputStream header = new BitInputStream(new FileInputStream(encodedFile), 1 << 12);
+        HuffmanHeader parsed = HuffmanHeader.read(header);
+        header.close();
+        int mode = parsed.getMode();
+        if (mode != HuffmanHeader.MODE_CHARS && mode != HuffmanHeader.MODE_BYTES
+                && mode != HuffmanHeader.MODE_CODE_POINTS)
+            throw new IOException("Unknown symbol mode " + mode);
+
+        MappedDecoder decoder = new MappedDecoder(encodedFile);
+        decoder.out = new FileOutputStream(decodedFile);
+        try {
+            decoder.bitPosition = header.getBitCount();
+            TableDecoder table = parsed.getLength() > 0 ? parsed.getCodebook().getDecoder() : null;
+            long endBit = decoder.fileSize * 8;
+            for (long remaining = parsed.getLength(); remaining > 0;) {
+                int n = decoder.decodeChunk(table, (int) Math.min(CHUNK, remaining), endBit);
+                // A file cut short either runs out of bits before a chunk
+                // starts or partway through its last code
+                if (n == 0 || decoder.bitPosition > endBit)
+                    throw new IOException("Corrupt encoded file, it ends after "
+                            + (parsed.getLength() - remaining + (n == 0 ? 0 : n - 1)) + " of " + parsed.getLength()
+                            + " symbols");
+                decoder.emit(mode, n);
+                remaining -= n;
+            }
+            decoder.finish();
+            return parsed.getLength();
+        } finally {
+            decoder.close();
+        }
+    }
+
+    /**
+     * Decodes a file written by encodeFromArray, with its padding in front,
+     * until the bits run out
+     *
+     * @param encodedFile The file which contains the encoded text
+     * @param table       The decoder for the huffman coding tree
+     * @param decodedFile The file which you want to decode into
+     * @return The number of symbols decoded
+     */
+    public static long decodeLegacy(String encodedFile, TableDecoder table, String decodedFile) throws IOException {
+        MappedDecoder decoder = new MappedDecoder(encodedFile);
+        decoder.out = new FileOutputStream(decodedFile);
+        try {
+            long endBit = decoder.fileSize * 8;
+            long count = 0;
+            if (decoder.fileSize > 0) {
+                // Skip the zeroes and the terminating 1 in the first byte, as
+                // HuffmanCoding.skipPadding does
+                decoder.map(0);
+                int first = decoder.segment.get(0) & 0xFF;
+                decoder.bitPosition = Math.min(8, Integer.numberOfLeadingZeros(first) - 24 + 1);
+            }
+            while (decoder.bitPosition < endBit) {
+                int n = decoder.decodeChunk(table, CHUNK, endBit);
+                decoder.emit(HuffmanHeader.MODE_CHARS, n);
+                count += n;
+            }
+            decoder.finish();
+            return count;
+        } finally {
+            decoder.close();
+        }
+    }
+
+    /**
+     * Decodes up to count symbols into the symbols array, stopping early if
+     * the bit position reaches endBit
+     *
+     * @return The number of symbols decoded
+     */
+    private int decodeChunk(TableDecoder decoder, int count, long endBit) throws IOException {
+        // Make sure the whole chunk lies inside the mapped segment, unless the
+        // segment already reaches the end of the file
+        long byteStart = bitPosition >>> 3;
+        long need = (long) count * Codebook.MAX_CODE_LENGTH / 8 + 16;
+        if (segment == null || byteStart < segmentStart
+                || (segmentStart + segment.limit() < fileSize && byteStart + need > segmentStart + segment.limit()))
+            map(byteStart);
+
+        int[] table = decoder.getTable();
+        int rootBits = decoder.getRootBits();
+        ByteBuffer buffer = segment;
+        int[] symbols = this.symbols;
+        long position = bitPosition - segmentStart * 8;
+        long end = Math.min(endBit, fileSize * 8) - segmentStart * 8;
+
+        // One 64-bit load holds at least 57 bits, enough for several codes
+        // which finish in the root table
+        int n = 0;
+        long window = 0;
+        int available = 0;
+        while (n < count && position < end) {
+            if (available < rootBits) {
+                window = window(buffer, position);
+                available = 57;
+            }
+            int bits = rootBits;
+            int entry = table[(int) (window >>> (64 - bits))];
+
+            if (entry < 0) {
+                // Follow links into secondary tables, reloading the window each
+                // time since long codes may not fit in the first one
+                do {
+                    position += bits;
+                    window = window(buffer, position);
+                    entry = ~entry;
+                    bits = entry & 31;
+                    entry = table[(entry >>> 5) + (int) (window >>> (64 - bits))];
+                } while (entry < 0);
+                available = 0;
+            }
+            int length = entry & 31;
+            if (length == 0)
+                throw new IOException("Corrupt encoded file, no code matches at bit " + (position + segmentStart * 8));
+            position += length;
+            window <<= length;
+            available -= length;
+            symbols[n++] = entry >>> 5;
+        }
+        bitPosition = position + segmentStart * 8;
+        return n;
+    }
+
+    /**
+     * Loads the 64 bits starting at a bit position in the segment, left-aligned.
+     * At least 57 of them are real, and bits past the end of the file are 0.
+     */
+    private static long window(ByteBuffer buffer, long position) {
+        int index = (int) (position >>> 3);
+        long word;
+        if (index + 8 <= buffer.limit()) {
+            word = buffer.getLong(index);
+        } else {
+            word = 0;
+            for (int i = 0; i < 8; i++)
+                word = (word << 8) | (index + i < buffer.limit() ? buffer.get(index + i) & 0xFF : 0);
+        }
+        return word << (position & 7);
+    }
+
+    // Maps the segment of the file starting at the given byte
+    private void map(long start) throws IOException {
+        segmentStart = start;
+        segment = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, fileSize - start));
+    }
+
+    /**
+     * Appends n decoded symbols to the output buffer. Bytes are copied as they
+     * are, and characters and code points are written as UTF-8 the same way
+     * OutputStreamWriter does, with a '?' for any unpaired surrogate.
+     */
+    private void emit(int mode, int n) throws IOException {
+        int[] symbols = this.symbols;
+        byte[] output = this.output;
+        for (int i = 0; i < n; i++) {
+            if (outputCount >= OUTPUT_SIZE) {
+                out.write(output, 0, outputCount);
+                outputCount = 0;
+            }
+            int c = symbols[i];
+            if (mode == HuffmanHeader.MODE_BYTES || c < 0x80 && highSurrogate < 0) {
+                output[outputCount++] = (byte) c;
+                continue;
+            }
+
+            if (mode == HuffmanHeader.MODE_CHARS) {
+                // Characters are UTF-16 units, so a surrogate pair arrives as
+                // two symbols which have to be joined
+                if (highSurrogate >= 0) {
+                    if (Character.isLowSurrogate((char) c)) {
+                        putCodePoint(Character.toCodePoint((char) highSurrogate, (char) c));
+                        highSurrogate = -1;
+                        continue;
+                    }
+                    output[outputCount++] = '?';
+                    highSurrogate = -1;
+                }
+                if (Character.isHighSurrogate((char) c)) {
+                    highSurrogate = c;
+                    continue;
+                }
+            }
+            putCodePoint(c);
+        }
+    }
+
+    private void putCodePoint(int c) {
+        byte[] output = this.output;
+        if (c < 0x80) {
+            output[outputCount++] = (byte) c;
+        } else if (c < 0x800) {
+            output[outputCount++] = (byte) (0xC0 | c >>> 6);
+            output[outputCount++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isSurrogate((char) c) && c <= 0xFFFF) {
+            output[outputCount++] = '?';
+        } else if (c < 0x10000) {
+            output[outputCount++] = (byte) (0xE0 | c >>> 12);
+            output[outputCount++] = (byte) (0x80 | c >>> 6 & 0x3F);
+            output[outputCount++] = (byte) (0x80 | c & 0x3F);
+        } else {
+            output[outputCount++] = (byte) (0xF0 | c >>> 18);
+            output[outputCount++] = (byte) (0x80 | c >>> 12 & 0x3F);
+            output[outputCount++] = (byte) (0x80 | c >>> 6 & 0x3F);
+            output[outputCount++] = (byte) (0x80 | c & 0x3F);
+        }
+    }
+
+    // Writes out whatever is left, including a trailing unpaired surrogate
+    private void finish() throws IOException {
+        if (highSurrogate >= 0)
+            output[outputCount++] = '?';
+        out.write(output, 0, outputCount);
+        outputCount = 0;
+    }
+
+    private void close() throws IOException {
+        channel.close();
+        if (out != null)
+            out.close();
+    }
+}
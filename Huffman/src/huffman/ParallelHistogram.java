@@ -0,0 +1,110 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class counts byte values in a file using every core. The file is
+ * memory-mapped and split into chunks, each chunk is counted on the fork/join
+ * pool into its own long[256], and the counts are added together on the way
+ * back up.
+ */
+public class ParallelHistogram {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 1 << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Counts how often each byte value occurs in a file
+     *
+     * @param filename The file to read from
+     * @return Array of size 256 indexed by byte value
+     */
+    public static long[] countBytes(String filename) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size == 0)
+                return new long[256];
+
+            // Aim for a few chunks per worker so uneven progress balances out
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            long chunk = Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, size / (pool.getParallelism() * 4L)));
+            return pool.invoke(new CountTask(channel, 0, size, chunk));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Counts the bytes in [from, to) of the channel, splitting in half until
+     * the range is no bigger than one chunk
+     */
+    private static class CountTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long from, to, chunk;
+
+        CountTask(FileChannel channel, long from, long to, long chunk) {
+            this.channel = channel;
+            this.from = from;
+            this.to = to;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from <= chunk) {
+                try {
+                    return countRange(channel, from, to);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            long middle = from + (to - from) / 2;
+            CountTask left = new CountTask(channel, from, middle, chunk);
+            left.fork();
+            long[] counts = new CountTask(channel, middle, to, chunk).compute();
+            long[] leftCounts = left.join();
+            for (int i = 0; i < 256; i++)
+                counts[i] += leftCounts[i];
+            return counts;
+        }
+    }
+
+    private static long[] countRange(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        byte[] bytes = new byte[BUFFER_SIZE];
+
+        // Four tables let neighbouring equal bytes update different counters,
+        // so the increments do not wait on each other
+        long[] c0 = new long[256], c1 = new long[256], c2 = new long[256], c3 = new long[256];
+        while (mapped.hasRemaining()) {
+            int n = Math.min(bytes.length, mapped.remaining());
+            mapped.get(bytes, 0, n);
+            int i = 0;
+            for (; i + 3 < n; i += 4) {
+                c0[bytes[i] & 0xFF]++;
+                c1[bytes[i + 1] & 0xFF]++;
+                c2[bytes[i + 2] & 0xFF]++;
+                c3[bytes[i + 3] & 0xFF]++;
+            }
+            for (; i < n; i++)
+                c0[bytes[i] & 0xFF]++;
+        }
+
+        for (int i = 0; i < 256; i++)
+            c0[i] += c1[i] + c2[i] + c3[i];
+        return c0;
+    }
+}
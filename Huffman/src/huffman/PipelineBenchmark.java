@@ -0,0 +1,196 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class benchmarks every stage of the huffman pipeline: makeSortedList,
+ * makeTree, makeEncodings, encodeFromArray and decode, plus end-to-end
+ * compression and decompression through both the legacy tree API and the
+ * self-describing encode and decode. It runs over input1.txt through
+ * input6.txt and over generated corpora (uniform, Zipfian, a single repeated
+ * character and English-like text) at each size given as an argument, such as
+ * "java huffman.PipelineBenchmark 1k 1m 1g". Without arguments the generated
+ * corpora are 1 KB and 1 MB.
+ *
+ * Each stage is warmed up and then run repeatedly for a fixed time, the way a
+ * JMH harness would. For each stage the time per operation, throughput in MB/s
+ * of original input, and bytes allocated per operation are reported, and each
+ * corpus also reports its compression ratio. Allocation is measured on the
+ * calling thread only, so counting done on ForkJoin threads is not included.
+ */
+public class PipelineBenchmark {
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private static final String[] WORDS = { "the", "of", "and", "to", "a", "in", "is", "that", "for", "it", "as",
+            "was", "with", "be", "by", "on", "not", "he", "this", "are", "or", "his", "from", "at", "which", "but",
+            "have", "an", "had", "they", "you", "were", "their", "one", "all", "we", "can", "her", "has", "there",
+            "been", "if", "more", "when", "will", "would", "who", "so", "no", "huffman", "tree", "code", "symbol",
+            "frequency", "table", "stream", "encoding", "decoder", "compression", "length", "character" };
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-26s %-16s %12s %10s %14s\n", "corpus", "stage", "us/op", "MB/s", "alloc KB/op");
+
+        for (String input : Benchmarks.inputs())
+            run(input, input);
+
+        String[] sizes = args.length > 0 ? args : new String[] { "1k", "1m" };
+        for (String size : sizes) {
+            long bytes = parseSize(size);
+            for (String corpus : new String[] { "uniform", "zipf", "single", "english" }) {
+                File text = File.createTempFile("huffman-bench", ".txt");
+                text.deleteOnExit();
+                generate(corpus, text, bytes);
+                run(corpus + " " + size, text.getPath());
+                text.delete();
+            }
+        }
+    }
+
+    private static void run(String name, String textFile) throws IOException {
+        File encoded = File.createTempFile("huffman-bench", ".enc");
+        File decoded = File.createTempFile("huffman-bench", ".dec");
+        encoded.deleteOnExit();
+        decoded.deleteOnExit();
+        String enc = encoded.getPath(), dec = decoded.getPath();
+        long bytes = new File(textFile).length();
+
+        ArrayList<CharFreq> list = HuffmanCoding.makeSortedList(textFile);
+        TreeNode root = HuffmanCoding.makeTree(list);
+        String[] encodings = HuffmanCoding.makeEncodings(root);
+        HuffmanCoding.encodeFromArray(encodings, textFile, enc);
+
+        report(name, "makeSortedList", bytes, () -> HuffmanCoding.makeSortedList(textFile));
+        report(name, "makeTree", bytes, () -> HuffmanCoding.makeTree(list));
+        report(name, "makeEncodings", bytes, () -> HuffmanCoding.makeEncodings(root));
+        report(name, "encodeFromArray", bytes, () -> HuffmanCoding.encodeFromArray(encodings, textFile, enc));
+        report(name, "decode", bytes, () -> HuffmanCoding.decode(enc, root, dec));
+        report(name, "compress", bytes, () -> HuffmanCoding.encodeFromArray(
+                HuffmanCoding.makeEncodings(HuffmanCoding.makeTree(HuffmanCoding.makeSortedList(textFile))),
+                textFile, enc));
+        long legacySize = encoded.length();
+        report(name, "decompress", bytes, () -> HuffmanCoding.decode(enc, root, dec));
+
+        report(name, "encode (header)", bytes, () -> HuffmanCoding.encode(textFile, enc));
+        long headerSize = encoded.length();
+        report(name, "decode (header)", bytes, () -> HuffmanCoding.decode(enc, dec));
+
+        System.err.printf("%-26s ratio %.4f (legacy, no header) %.4f (with header)\n", name,
+                (double) legacySize / Math.max(bytes, 1), (double) headerSize / Math.max(bytes, 1));
+        encoded.delete();
+        decoded.delete();
+    }
+
+    private static void report(String name, String stage, long bytes, Benchmarks.Body body) throws IOException {
+        Benchmarks.warmUp(body);
+
+        long ops = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            body.run();
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURE_NANOS);
+        allocated = allocatedBytes() - allocated;
+
+        double nanosPerOp = (double) elapsed / ops;
+        System.err.printf("%-26s %-16s %12.1f %10.1f %14.1f\n", name, stage, nanosPerOp / 1e3,
+                Benchmarks.rate(bytes, nanosPerOp), allocated / 1024.0 / ops);
+    }
+
+    // Bytes allocated so far by this thread, or 0 if the JVM cannot say
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        return 0;
+    }
+
+    private static long parseSize(String size) {
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        String digits = shift == 0 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(digits) << shift;
+    }
+
+    /**
+     * Writes a generated ASCII corpus of the given kind and size
+     */
+    private static void generate(String corpus, File file, long bytes) throws IOException {
+        Random random = new Random(42);
+        byte[] sampler = corpus.equals("english") ? englishSampler(random) : charSampler(corpus);
+        byte[] chunk = new byte[1 << 16];
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        int pos = random.nextInt(sampler.length);
+        for (long written = 0; written < bytes; written += chunk.length) {
+            for (int i = 0; i < chunk.length; i++) {
+                if (corpus.equals("english")) {
+                    // English-like text is read in runs from a long sample of
+                    // words, jumping somewhere new every so often
+                    if (pos == sampler.length || random.nextInt(64) == 0)
+                        pos = random.nextInt(sampler.length);
+                    chunk[i] = sampler[pos++];
+                } else {
+                    chunk[i] = sampler[random.nextInt(sampler.length)];
+                }
+            }
+            out.write(chunk, 0, (int) Math.min(chunk.length, bytes - written));
+        }
+        out.close();
+    }
+
+    // A 4096 entry table which printable characters are drawn from uniformly
+    private static byte[] charSampler(String corpus) {
+        if (corpus.equals("single")) {
+            byte[] sampler = new byte[4096];
+            Arrays.fill(sampler, (byte) 'a');
+            return sampler;
+        }
+        return Benchmarks.charSampler(corpus.equals("zipf"));
+    }
+
+    // About 1 MB of words picked with Zipf weights, with sentences and lines
+    private static byte[] englishSampler(Random random) {
+        double[] cumulative = Benchmarks.zipfCumulative(WORDS.length);
+        double total = cumulative[WORDS.length - 1];
+
+        StringBuilder text = new StringBuilder();
+        boolean capital = true;
+        while (text.length() < 1 << 20) {
+            double pick = random.nextDouble() * total;
+            int w = 0;
+            while (cumulative[w] < pick)
+                w++;
+            String word = WORDS[w];
+            text.append(capital ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+            capital = false;
+
+            int end = random.nextInt(40);
+            if (end == 0) {
+                text.append(".\n");
+                capital = true;
+            } else if (end < 3) {
+                text.append(". ");
+                capital = true;
+            } else if (end < 5) {
+                text.append(", ");
+            } else {
+                text.append(' ');
+            }
+        }
+        byte[] sampler = new byte[text.length()];
+        for (int i = 0; i < sampler.length; i++)
+            sampler[i] = (byte) text.charAt(i);
+        return sampler;
+    }
+}
@@ -0,0 +1,81 @@
+package huffman;
+
+import java.io.IOException;
+
+/**
+ * This class reads arbitrary ranges of the original input back out of a block
+ * container written by BlockCoding, without decoding everything before them.
+ * A read jumps to the last sync point at or before the requested offset,
+ * decodes and throws away the few bytes up to the offset, and then decodes
+ * only the requested range, moving on to the next block if the range crosses
+ * into it.
+ *
+ * One SeekableDecoder may be used by several threads at once.
+ */
+public class SeekableDecoder {
+    private final BlockCoding.Container container;
+
+    public SeekableDecoder(String encodedFile) throws IOException {
+        container = BlockCoding.Container.open(encodedFile);
+    }
+
+    /**
+     * @return The length of the original input in bytes
+     */
+    public long length() {
+        return container.getLength();
+    }
+
+    /**
+     * Decodes a range of the original input
+     *
+     * @param offset The offset of the first byte to decode
+     * @param length The number of bytes to decode
+     * @return The decoded bytes
+     */
+    public byte[] read(long offset, int length) throws IOException {
+        byte[] decoded = new byte[length];
+        read(offset, decoded, 0, length);
+        return decoded;
+    }
+
+    /**
+     * Decodes a range of the original input into an array
+     *
+     * @param offset The offset of the first byte to decode
+     * @param dest   The array to decode into
+     * @param start  The index in dest of the first decoded byte
+     * @param length The number of bytes to decode
+     */
+    public void read(long offset, byte[] dest, int start, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > container.getLength())
+            throw new IndexOutOfBoundsException("Range " + offset + "+" + length + " is outside of 0-"
+                    + container.getLength());
+        TableDecoder decoder = length > 0 ? container.getCodebook().getDecoder() : null;
+
+        int blockSize = container.getBlockSize();
+        while (length > 0) {
+            int block = (int) (offset / blockSize);
+            int position = (int) (offset % blockSize);
+            int sync = container.getSyncBefore(block, position);
+            BitInputStream in = container.openAtSync(block, sync);
+
+            // Skip from the sync point up to the requested offset
+            for (int skip = position - sync * container.getSyncInterval(); skip > 0; skip--)
+                decoder.decodeSymbol(in);
+
+            int count = Math.min(length, container.getBlockLength(block) - position);
+            for (int i = 0; i < count; i++)
+                dest[start + i] = (byte) decoder.decodeSymbol(in);
+            in.close();
+
+            offset += count;
+            start += count;
+            length -= count;
+        }
+    }
+
+    public void close() throws IOException {
+        container.close();
+    }
+}
@@ -0,0 +1,112 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * This class counts occurrences of non-negative int symbols in an open
+ * addressing hash table, for alphabets too large or too sparse for a plain
+ * array of counts. Keys and counts live in two primitive arrays, so counting
+ * never allocates unless the table has to grow.
+ */
+public class SparseHistogram {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private long[] counts;
+    private int size;
+
+    public SparseHistogram() {
+        this(64);
+    }
+
+    public SparseHistogram(int expectedSymbols) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSymbols, 8) * 2 - 1) * 2;
+        keys = new int[capacity];
+        counts = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Counts one more occurrence of a symbol
+     *
+     * @param symbol The symbol, which must not be negative
+     */
+    public void add(int symbol) {
+        add(symbol, 1);
+    }
+
+    /**
+     * Counts n more occurrences of a symbol
+     *
+     * @param symbol The symbol, which must not be negative
+     * @param n      The number of occurrences to add
+     */
+    public void add(int symbol, long n) {
+        if (symbol < 0)
+            throw new IllegalArgumentException("Negative symbol " + symbol);
+        int slot = find(keys, symbol);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = symbol;
+            size++;
+        }
+        counts[slot] += n;
+
+        // Keep the table at most half full so probes stay short
+        if (size * 2 > keys.length)
+            grow();
+    }
+
+    /**
+     * @return How many times the symbol has been counted
+     */
+    public long get(int symbol) {
+        int slot = find(keys, symbol);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * @return The number of distinct symbols counted
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Every distinct symbol counted, in increasing order
+     */
+    public int[] sortedKeys() {
+        int[] sorted = new int[size];
+        int i = 0;
+        for (int key : keys) {
+            if (key != EMPTY)
+                sorted[i++] = key;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // Returns the slot holding the symbol, or the empty slot where it belongs
+    private static int find(int[] keys, int symbol) {
+        int mask = keys.length - 1;
+        int hash = symbol * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != symbol)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class decodes huffman codes with lookup tables instead of walking the
+ * tree one bit at a time. The root table is indexed by the next TABLE_BITS
+ * bits of input and resolves every code of that length or shorter in a single
+ * step. Longer codes are resolved through secondary tables, each indexed by up
+ * to TABLE_BITS more bits.
+ *
+ * Every table entry is one int. Entries which finish a code hold the symbol
+ * and the number of bits it uses at that level as (symbol << 5) | length.
+ * Entries which point to a secondary table are negative and hold
+ * ~((offset << 5) | tableBits).
+ */
+public class TableDecoder {
+    public static final int TABLE_BITS = 11;
+
+    private final int[] table;
+    private final int rootBits;
+
+    /**
+     * Builds the lookup tables for the codes in a huffman coding tree
+     *
+     * @param root The root of the huffman coding tree
+     */
+    public TableDecoder(TreeNode root) {
+        ArrayList<long[]> codes = new ArrayList<long[]>();
+        collectCodes(root, 0, 0, codes);
+
+        int[] symbols = new int[codes.size()];
+        long[] bits = new long[codes.size()];
+        int[] lengths = new int[codes.size()];
+        for (int i = 0; i < codes.size(); i++) {
+            symbols[i] = (int) codes.get(i)[0];
+            bits[i] = codes.get(i)[1];
+            lengths[i] = (int) codes.get(i)[2];
+        }
+
+        Builder builder = new Builder(symbols, bits, lengths);
+        table = builder.table;
+        rootBits = builder.rootBits;
+    }
+
+    /**
+     * Builds the lookup tables for a set of prefix-free codes
+     *
+     * @param symbols The symbol of each code
+     * @param codes   The bits of each code, right-aligned
+     * @param lengths The length of each code, between 1 and 64
+     */
+    public TableDecoder(int[] symbols, long[] codes, int[] lengths) {
+        Builder builder = new Builder(symbols, codes, lengths);
+        table = builder.table;
+        rootBits = builder.rootBits;
+    }
+
+    /**
+     * Reads and decodes one symbol. The caller should make sure the stream
+     * still has bits left.
+     *
+     * @param in The bit reader to decode from
+     * @return The decoded symbol
+     * @throws IOException If the next bits do not start any code
+     */
+    public int decodeSymbol(BitInputStream in) throws IOException {
+        int bits = rootBits;
+        int entry = table[(int) in.peekBits(bits)];
+
+        // Follow links into secondary tables until a code is finished
+        while (entry < 0) {
+            in.skipBits(bits);
+            entry = ~entry;
+            bits = entry & 31;
+            entry = table[(entry >>> 5) + (int) in.peekBits(bits)];
+        }
+        // Slots an incomplete set of codes leaves empty are 0, which would
+        // decode to symbol 0 without using any bits
+        if ((entry & 31) == 0)
+            throw new IOException("Corrupt encoded data, no code matches at bit " + in.getBitCount());
+        in.skipBits(entry & 31);
+        return entry >>> 5;
+    }
+
+    /**
+     * Decodes every remaining bit of the input, writing each symbol as a
+     * character
+     *
+     * @param in  The bit reader to decode from
+     * @param out The writer to print decoded characters to
+     */
+    public void decode(BitInputStream in, Writer out) throws IOException {
+        while (in.hasMoreBits())
+            out.write(decodeSymbol(in));
+    }
+
+    // The lookup tables, for decoders such as MappedDecoder which read bits
+    // from somewhere other than a BitInputStream
+    int[] getTable() {
+        return table;
+    }
+
+    int getRootBits() {
+        return rootBits;
+    }
+
+    // Records the symbol, bits, and length of every leaf below the given node
+    private static void collectCodes(TreeNode node, long code, int length, ArrayList<long[]> codes) {
+        if (node.getLeft() == null && node.getRight() == null) {
+            codes.add(new long[] { node.getData().getCharacter(), code, length });
+            return;
+        }
+        if (node.getLeft() != null)
+            collectCodes(node.getLeft(), code << 1, length + 1, codes);
+        if (node.getRight() != null)
+            collectCodes(node.getRight(), (code << 1) | 1, length + 1, codes);
+    }
+
+    /**
+     * Lays out the root table and every secondary table in one int array
+     */
+    private static class Builder {
+        private final int[] symbols;
+        private final int[] lengths;
+        private final long[] aligned;
+        private int[] table = new int[1 << TABLE_BITS];
+        private int size;
+        private int rootBits;
+
+        Builder(int[] symbols, long[] codes, int[] lengths) {
+            if (symbols.length == 0)
+                throw new IllegalArgumentException("Cannot decode an empty set of codes");
+
+            // Sort the codes by their bits aligned to the top of a long, so that
+            // codes sharing a prefix end up next to each other
+            Integer[] order = new Integer[symbols.length];
+            long[] left = new long[symbols.length];
+            for (int i = 0; i < symbols.length; i++) {
+                if (lengths[i] < 1 || lengths[i] > 64)
+                    throw new IllegalArgumentException("Invalid code length " + lengths[i]);
+                if (symbols[i] < 0 || symbols[i] >= 1 << 26)
+                    throw new IllegalArgumentException("Symbol out of range: " + symbols[i]);
+                order[i] = i;
+                left[i] = codes[i] << (64 - lengths[i]);
+            }
+            Arrays.sort(order, (a, b) -> Long.compareUnsigned(left[a], left[b]));
+
+            this.symbols = new int[symbols.length];
+            this.lengths = new int[symbols.length];
+            this.aligned = new long[symbols.length];
+            for (int i = 0; i < order.length; i++) {
+                this.symbols[i] = symbols[order[i]];
+                this.lengths[i] = lengths[order[i]];
+                this.aligned[i] = left[order[i]];
+            }
+
+            rootBits = ~build(0, symbols.length, 0) & 31;
+            table = Arrays.copyOf(table, size);
+        }
+
+        /**
+         * Builds the table for codes [from, to), which all share their first
+         * depth bits and are all longer than depth
+         *
+         * @return The link entry pointing to the new table
+         */
+        private int build(int from, int to, int depth) {
+            int maxLength = 0;
+            for (int i = from; i < to; i++)
+                maxLength = Math.max(maxLength, lengths[i]);
+            int bits = Math.min(TABLE_BITS, maxLength - depth);
+
+            int base = size;
+            size += 1 << bits;
+            if (size > table.length)
+                table = Arrays.copyOf(table, Math.max(size, table.length * 2));
+
+            int i = from;
+            while (i < to) {
+                int key = (int) ((aligned[i] << depth) >>> (64 - bits));
+                int rest = lengths[i] - depth;
+
+                if (rest <= bits) {
+                    // The code finishes in this table, so every index starting
+                    // with its remaining bits decodes to it
+                    int first = base + key;
+                    Arrays.fill(table, first, first + (1 << (bits - rest)), (symbols[i] << 5) | rest);
+                    i++;
+                } else {
+                    // Every code sharing this key continues into a secondary table
+                    int j = i + 1;
+                    while (j < to && (int) ((aligned[j] << depth) >>> (64 - bits)) == key)
+                        j++;
+                    // Build first, since building may grow the table array
+                    int link = build(i, j, depth + bits);
+                    table[base + key] = link;
+                    i = j;
+                }
+            }
+            return ~((base << 5) | bits);
+        }
+    }
+}
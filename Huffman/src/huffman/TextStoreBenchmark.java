@@ -0,0 +1,70 @@
+package huffman;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * This class stores every line of a file in a CompressedTextStore and reports
+ * how much heap the store takes compared to the lines as Strings, how long
+ * building it takes, and how long a random lookup takes. It runs over
+ * input1.txt through input6.txt and any other files given as arguments.
+ */
+public class TextStoreBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int LOOKUPS = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %8s %14s %12s %8s %10s %12s\n", "input", "lines", "String bytes", "store bytes",
+                "ratio", "build ms", "ns/lookup");
+        for (String input : Benchmarks.inputs(args)) {
+            ArrayList<String> lines = readLines(input);
+            if (lines.isEmpty())
+                continue;
+
+            // A String is a 24 byte object and an array with a 16 byte
+            // header, holding one byte per character if every character fits
+            // in Latin-1 and two otherwise, rounded up to 8 bytes
+            long strings = 8L * lines.size();
+            for (String s : lines) {
+                boolean latin1 = s.chars().allMatch(c -> c < 256);
+                strings += 24 + ((16 + (latin1 ? 1 : 2) * s.length() + 7) & ~7);
+            }
+
+            long buildNanos = Benchmarks.best(ROUNDS, () -> CompressedTextStore.build(lines));
+            CompressedTextStore store = CompressedTextStore.build(lines);
+            for (int i = 0; i < lines.size(); i++) {
+                if (!store.get(i).equals(lines.get(i)))
+                    throw new IllegalStateException("Line " + i + " of " + input + " did not round trip");
+            }
+
+            StringBuilder buffer = new StringBuilder();
+            long lookupNanos = Benchmarks.best(ROUNDS, () -> {
+                Random random = new Random(1);
+                for (int i = 0; i < LOOKUPS; i++) {
+                    buffer.setLength(0);
+                    store.get(random.nextInt(lines.size()), buffer);
+                }
+            });
+            System.err.printf("%-20s %8d %14d %12d %7.2fx %10.1f %12.0f\n", new File(input).getName(), lines.size(),
+                    strings, store.memoryUsage(), (double) strings / store.memoryUsage(), buildNanos / 1e6,
+                    (double) lookupNanos / LOOKUPS);
+        }
+    }
+
+    private static ArrayList<String> readLines(String file) throws IOException {
+        ArrayList<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null)
+                lines.add(line);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,81 @@
+package huffman;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class times building a huffman coding tree at alphabet sizes from 256
+ * to 2^20 symbols, with counts drawn from a Zipf-like distribution the way
+ * words and code points are spread. It compares:
+ *
+ * <pre>
+ * objects   makeSortedList and makeTree, with a CharFreq and a TreeNode per
+ *           symbol, up to the 65536 symbols a char can hold
+ * sort      sorting the packed count and symbol keys with Arrays.sort
+ * radix     sorting the same keys with TreeBuilder's radix sort
+ * builder   TreeBuilder.build, sort and two-queue merge together
+ * </pre>
+ *
+ * Times are the best of several runs, in microseconds. Alphabet sizes may be
+ * given as arguments instead (for example "java huffman.TreeBenchmark 300000").
+ */
+public class TreeBenchmark {
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = { 256, 1 << 10, 1 << 12, 1 << 14, 1 << 16, 1 << 18, 1 << 20 };
+        if (args.length > 0)
+            sizes = Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        System.err.printf("%-10s %12s %12s %12s %12s %8s\n", "symbols", "objects us", "sort us", "radix us",
+                "builder us", "speedup");
+        for (int n : sizes) {
+            long[] occ = zipf(n, new Random(n));
+            TreeBuilder builder = new TreeBuilder(n);
+
+            int symbolBits = 32 - Integer.numberOfLeadingZeros(n - 1);
+            long[] keys = new long[n];
+            for (int s = 0; s < n; s++)
+                keys[s] = occ[s] << symbolBits | s;
+            long[] sorted = keys.clone();
+            long[] radixSorted = keys.clone();
+            long[] scratch = new long[n];
+            int[] offsets = new int[TreeBuilder.RADIX_OFFSETS];
+
+            double objects = Double.NaN;
+            if (n <= 65536)
+                objects = Benchmarks.best(ROUNDS,
+                        () -> HuffmanCoding.makeTree(HuffmanCoding.makeSortedList(occ))) / 1e3;
+            double sort = Benchmarks.best(ROUNDS, () -> {
+                System.arraycopy(keys, 0, sorted, 0, n);
+                Arrays.sort(sorted);
+            }) / 1e3;
+            double radix = Benchmarks.best(ROUNDS, () -> {
+                System.arraycopy(keys, 0, radixSorted, 0, n);
+                TreeBuilder.radixSort(radixSorted, null, scratch, null, offsets, n);
+            }) / 1e3;
+            double build = Benchmarks.best(ROUNDS, () -> builder.build(occ)) / 1e3;
+            if (!Arrays.equals(sorted, radixSorted))
+                throw new IllegalStateException("Radix sort disagrees with Arrays.sort at " + n + " symbols");
+
+            System.err.printf("%-10d %12s %12.1f %12.1f %12.1f %7.1fx\n", n,
+                    Double.isNaN(objects) ? "-" : String.format("%.1f", objects), sort, radix, build, sort / radix);
+        }
+    }
+
+    // Counts falling off as 1 / rank, shuffled so that symbol order says
+    // nothing about count order
+    private static long[] zipf(int n, Random random) {
+        long[] occ = new long[n];
+        for (int s = 0; s < n; s++)
+            occ[s] = Math.max(1, 100_000_000L / (s + 1)) + random.nextInt(16);
+        for (int s = n - 1; s > 0; s--) {
+            int t = random.nextInt(s + 1);
+            long c = occ[s];
+            occ[s] = occ[t];
+            occ[t] = c;
+        }
+        return occ;
+    }
+}
@@ -0,0 +1,340 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * This class builds huffman coding trees out of primitive arrays instead of
+ * CharFreq, TreeNode, and Queue objects. It uses the same two-queue merge as
+ * HuffmanCoding.makeTree, but counts are exact longs rather than summed
+ * double probabilities, so ties always break the same way.
+ *
+ * Nodes are numbered so that the n leaves come first, sorted by count and
+ * then symbol, followed by the n - 1 internal nodes in the order they are
+ * made. Every parent has a higher number than its children, and the root is
+ * the last node. All arrays are kept between builds, so one builder can make
+ * any number of trees without allocating.
+ */
+public class TreeBuilder {
+    // Below this many leaves a comparison sort beats the radix sort's fixed
+    // cost of clearing and summing its buckets
+    static final int RADIX_THRESHOLD = 2048;
+    private static final int RADIX_BITS = 11;
+    // Bucket offsets for every digit of a 64-bit key
+    static final int RADIX_OFFSETS = (64 + RADIX_BITS - 1) / RADIX_BITS << RADIX_BITS;
+
+    private long[] keys;
+    private long[] scratch;
+    // Only made once a tree is big enough to radix sort
+    private int[] offsets;
+
+    // Only made for counts too large to pack with their symbols
+    private int[] order;
+    private int[] scratchOrder;
+    private long[] count;
+    private int[] symbol;
+    private int[] parent;
+    private int[] left;
+    private int[] right;
+    private int[] depth;
+    private int leaves;
+
+    /**
+     * @param maxSymbols The most distinct symbols expected in one tree. The
+     *                   arrays grow if a tree needs more.
+     */
+    public TreeBuilder(int maxSymbols) {
+        ensureCapacity(Math.max(maxSymbols, 2));
+    }
+
+    /**
+     * Builds the tree for a table of counts
+     *
+     * @param occ Array indexed by symbol, holding how often each occurs
+     * @return The number of leaves, which is the number of symbols that occur
+     */
+    public int build(long[] occ) {
+        int n = 0;
+        for (int s = 0; s < occ.length; s++) {
+            if (occ[s] > 0)
+                n++;
+        }
+        ensureCapacity(n);
+
+        n = 0;
+        for (int s = 0; s < occ.length; s++) {
+            if (occ[s] > 0) {
+                symbol[n] = s;
+                count[n++] = occ[s];
+            }
+        }
+        return merge(n);
+    }
+
+    /**
+     * Builds the tree for a list of symbols and their counts
+     *
+     * @param symbols The distinct symbols, which must not be negative
+     * @param occ     How often each symbol occurs, all greater than 0
+     * @param n       The number of symbols to use from the arrays
+     * @return The number of leaves
+     */
+    public int build(int[] symbols, long[] occ, int n) {
+        ensureCapacity(n);
+        System.arraycopy(symbols, 0, symbol, 0, n);
+        System.arraycopy(occ, 0, count, 0, n);
+        return merge(n);
+    }
+
+    /**
+     * Builds the tree for the symbols in a sparse histogram
+     *
+     * @param histogram The symbol counts
+     * @return The number of leaves
+     */
+    public int build(SparseHistogram histogram) {
+        int[] symbols = histogram.sortedKeys();
+        ensureCapacity(symbols.length);
+        for (int i = 0; i < symbols.length; i++) {
+            symbol[i] = symbols[i];
+            count[i] = histogram.get(symbols[i]);
+        }
+        return merge(symbols.length);
+    }
+
+    // Sorts the leaves and merges them into a tree
+    private int merge(int n) {
+        leaves = n;
+        sortLeaves(n);
+
+        // The leaves are the source queue and the internal nodes, which are
+        // made in order of increasing count, are the target queue
+        int source = 0, target = n, next = n;
+        while (next < 2 * n - 1) {
+            int a = (target == next || (source < n && count[source] <= count[target])) ? source++ : target++;
+            int b = (target == next || (source < n && count[source] <= count[target])) ? source++ : target++;
+            count[next] = count[a] + count[b];
+            left[next] = a;
+            right[next] = b;
+            parent[a] = next;
+            parent[b] = next;
+            next++;
+        }
+        if (n > 0)
+            parent[2 * n - 2] = -1;
+
+        // Parents always come after their children, so depths can be filled in
+        // from the root down in one sweep
+        if (n > 0)
+            depth[2 * n - 2] = 0;
+        for (int i = 2 * n - 3; i >= 0; i--)
+            depth[i] = depth[parent[i]] + 1;
+        if (n == 1)
+            depth[0] = 1;
+        return n;
+    }
+
+    /**
+     * Sorts the first n leaves by count and then by symbol. When they fit,
+     * count and symbol are packed into one long so that a primitive sort
+     * does all the work. Large alphabets are radix sorted, which takes time
+     * linear in n, so together with the two-queue merge the whole tree is
+     * built in linear time.
+     */
+    private void sortLeaves(int n) {
+        int maxSymbol = 0;
+        long maxCount = 0;
+        for (int i = 0; i < n; i++) {
+            maxSymbol = Math.max(maxSymbol, symbol[i]);
+            maxCount = Math.max(maxCount, count[i]);
+        }
+        int symbolBits = 32 - Integer.numberOfLeadingZeros(maxSymbol);
+
+        if (64 - Long.numberOfLeadingZeros(maxCount) + symbolBits < 64) {
+            long mask = (1L << symbolBits) - 1;
+            for (int i = 0; i < n; i++)
+                keys[i] = count[i] << symbolBits | symbol[i];
+            if (n < RADIX_THRESHOLD) {
+                Arrays.sort(keys, 0, n);
+            } else {
+                if (offsets == null)
+                    offsets = new int[RADIX_OFFSETS];
+                radixSort(keys, null, scratch, null, offsets, n);
+            }
+            for (int i = 0; i < n; i++) {
+                count[i] = keys[i] >>> symbolBits;
+                symbol[i] = (int) (keys[i] & mask);
+            }
+        } else {
+            // Counts too large to pack, so sort the leaves' positions by
+            // symbol, and then by count, which keeps symbols in order among
+            // equal counts because the radix sort is stable
+            if (order == null) {
+                order = new int[keys.length];
+                scratchOrder = new int[keys.length];
+            }
+            if (offsets == null)
+                offsets = new int[RADIX_OFFSETS];
+            for (int i = 0; i < n; i++) {
+                keys[i] = symbol[i];
+                order[i] = i;
+            }
+            radixSort(keys, order, scratch, scratchOrder, offsets, n);
+            for (int i = 0; i < n; i++)
+                keys[i] = count[order[i]];
+            radixSort(keys, order, scratch, scratchOrder, offsets, n);
+            for (int i = 0; i < n; i++)
+                scratchOrder[i] = symbol[order[i]];
+            System.arraycopy(keys, 0, count, 0, n);
+            System.arraycopy(scratchOrder, 0, symbol, 0, n);
+        }
+    }
+
+    /**
+     * Sorts the first n of a set of non-negative longs with a least
+     * significant digit first radix sort, RADIX_BITS at a time. Every digit's
+     * buckets are counted in one pass up front, and digits where all keys
+     * agree, such as the high bits of small counts, are skipped.
+     *
+     * @param keys         The keys to sort, which are sorted in place
+     * @param values       Ints which move along with the keys, or null
+     * @param scratch      Scratch space for n keys
+     * @param scratchOrder Scratch space for n values, or null
+     * @param offsets      Scratch space for RADIX_OFFSETS bucket offsets
+     * @param n            The number of keys
+     */
+    static void radixSort(long[] keys, int[] values, long[] scratch, int[] scratchOrder, int[] offsets, int n) {
+        long all = 0;
+        for (int i = 0; i < n; i++)
+            all |= keys[i];
+        int digits = (64 - Long.numberOfLeadingZeros(all) + RADIX_BITS - 1) / RADIX_BITS;
+        int buckets = 1 << RADIX_BITS;
+        int mask = buckets - 1;
+        Arrays.fill(offsets, 0, digits * buckets, 0);
+        for (int i = 0; i < n; i++) {
+            long key = keys[i];
+            for (int d = 0; d < digits; d++)
+                offsets[d * buckets + (int) (key >>> (d * RADIX_BITS) & mask)]++;
+        }
+
+        long[] from = keys, to = scratch;
+        int[] fromValues = values, toValues = scratchOrder;
+        for (int d = 0; d < digits; d++) {
+            int base = d * buckets;
+            int shift = d * RADIX_BITS;
+            // Turn the counts into starting offsets, skipping the digit if
+            // every key is in one bucket
+            boolean skip = false;
+            for (int b = 0, sum = 0; b < buckets; b++) {
+                int c = offsets[base + b];
+                if (c == n) {
+                    skip = true;
+                    break;
+                }
+                offsets[base + b] = sum;
+                sum += c;
+            }
+            if (skip)
+                continue;
+            for (int i = 0; i < n; i++) {
+                int slot = offsets[base + (int) (from[i] >>> shift & mask)]++;
+                to[slot] = from[i];
+                if (values != null)
+                    toValues[slot] = fromValues[i];
+            }
+            long[] t = from;
+            from = to;
+            to = t;
+            int[] tv = fromValues;
+            fromValues = toValues;
+            toValues = tv;
+        }
+        if (from != keys) {
+            System.arraycopy(from, 0, keys, 0, n);
+            if (values != null)
+                System.arraycopy(fromValues, 0, values, 0, n);
+        }
+    }
+
+    /**
+     * Writes each leaf's depth into an array indexed by symbol. A lone symbol
+     * gets a depth of 1 so that it still has a code.
+     *
+     * @param lengths The array to fill, big enough for every symbol. Entries
+     *                for symbols not in the tree are left alone.
+     */
+    public void codeLengths(byte[] lengths) {
+        for (int i = 0; i < leaves; i++) {
+            if (depth[i] > Codebook.MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("Huffman tree is deeper than " + Codebook.MAX_CODE_LENGTH);
+            lengths[symbol[i]] = (byte) depth[i];
+        }
+    }
+
+    /**
+     * @return The code lengths as an array indexed by symbol, just big enough
+     *         for the largest symbol
+     */
+    public byte[] codeLengths() {
+        int maxSymbol = -1;
+        for (int i = 0; i < leaves; i++)
+            maxSymbol = Math.max(maxSymbol, symbol[i]);
+        byte[] lengths = new byte[maxSymbol + 1];
+        codeLengths(lengths);
+        return lengths;
+    }
+
+    public int getLeafCount() {
+        return leaves;
+    }
+
+    /**
+     * @return The root node, or -1 if the tree is empty
+     */
+    public int getRoot() {
+        return leaves == 0 ? -1 : 2 * leaves - 2;
+    }
+
+    public boolean isLeaf(int node) {
+        return node < leaves;
+    }
+
+    public int getSymbol(int leaf) {
+        return symbol[leaf];
+    }
+
+    public long getCount(int node) {
+        return count[node];
+    }
+
+    public int getLeft(int node) {
+        return left[node];
+    }
+
+    public int getRight(int node) {
+        return right[node];
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getDepth(int node) {
+        return depth[node];
+    }
+
+    private void ensureCapacity(int n) {
+        int nodes = Math.max(2 * n - 1, 1);
+        if (count != null && count.length >= nodes)
+            return;
+        keys = new long[Math.max(n, 1)];
+        scratch = new long[Math.max(n, 1)];
+        order = null;
+        scratchOrder = null;
+        count = new long[nodes];
+        symbol = new int[Math.max(n, 1)];
+        parent = new int[nodes];
+        left = new int[nodes];
+        right = new int[nodes];
+        depth = new int[nodes];
+    }
+}
@@ -0,0 +1,41 @@
+package huffman;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * This class compares word-level coding (WordCoding) with character-level
+ * coding (encodeBytes) on compression ratio, and times word coding. It runs
+ * over input1.txt through input6.txt and any other files given as arguments.
+ */
+public class WordBenchmark {
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        System.err.printf("%-20s %10s %12s %10s %12s %12s\n", "input", "bytes", "characters", "words",
+                "encode MB/s", "decode MB/s");
+        File encoded = File.createTempFile("huffman-words", ".enc");
+        File decoded = File.createTempFile("huffman-words", ".dec");
+        encoded.deleteOnExit();
+        decoded.deleteOnExit();
+        String enc = encoded.getPath(), dec = decoded.getPath();
+        for (String input : Benchmarks.inputs(args)) {
+            long bytes = new File(input).length();
+            HuffmanCoding.encodeBytes(input, enc);
+            long characterSize = encoded.length();
+
+            long encodeNanos = Benchmarks.best(ROUNDS, () -> WordCoding.encode(input, enc));
+            long wordSize = encoded.length();
+            long decodeNanos = Benchmarks.best(ROUNDS, () -> WordCoding.decode(enc, dec));
+            if (Files.mismatch(new File(input).toPath(), decoded.toPath()) != -1)
+                throw new IllegalStateException(input + " did not round trip");
+
+            System.err.printf("%-20s %10d %11.2fx %9.2fx %12.1f %12.1f\n", new File(input).getName(), bytes,
+                    (double) bytes / characterSize, (double) bytes / wordSize, Benchmarks.rate(bytes, encodeNanos),
+                    Benchmarks.rate(bytes, decodeNanos));
+        }
+        encoded.delete();
+        decoded.delete();
+    }
+}
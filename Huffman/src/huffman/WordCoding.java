@@ -0,0 +1,445 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * This class encodes and decodes text word by word instead of character by
+ * character. The text is cut into tokens, each either a run of word bytes
+ * (letters, digits, and every byte of a non-ASCII character) or a run of
+ * anything else, such as ", " or a line break, and each token is one symbol.
+ * Natural language and logs repeat the same few thousand words over and
+ * over, so a code per word beats a code per character by a wide margin.
+ *
+ * Tokens which occur at least twice become the vocabulary, up to MAX_WORDS
+ * of the most frequent. Every other token is sent as the ESCAPE symbol
+ * followed by its bytes, spelled out with a second codebook over the 256 byte
+ * values and END. The vocabulary itself is spelled out the same way in the
+ * header. Both codebooks are canonical, built with the same two-queue merge as
+ * makeTree, and both are decoded through TableDecoder lookup tables however
+ * large the vocabulary is. The file looks like this:
+ *
+ * <pre>
+ * magic        32 bits, "HUFT"
+ * version       8 bits
+ * length       varint, the number of bytes of text
+ * tokens       varint, the number of tokens
+ * spelling     code lengths for the 256 byte values and END, as in
+ *              HuffmanHeader
+ * vocabulary   varint word count, then each word spelled out
+ * words        code lengths for ESCAPE and the words, as in HuffmanHeader
+ * codes        the code of each token, each ESCAPE followed by the spelled
+ *              token, padded with zeroes to a whole byte
+ * </pre>
+ */
+public class WordCoding {
+    public static final int MAGIC = 0x48554654;
+    public static final int VERSION = 1;
+    public static final int MAX_WORDS = 65535;
+    public static final int MAX_TOKEN_LENGTH = 64;
+
+    private static final int ESCAPE = 0;
+    private static final int END = 256;
+
+    /**
+     * Encodes a text file word by word
+     *
+     * @param textFile    The text file which is to be encoded
+     * @param encodedFile The file name into which the text file is to be encoded
+     * @return The number of tokens
+     */
+    public static long encode(String textFile, String encodedFile) throws IOException {
+        // First pass: count every distinct token
+        WordTable table = new WordTable(1 << 12);
+        long tokens = 0;
+        Tokenizer tokenizer = new Tokenizer(new FileInputStream(textFile));
+        try {
+            while (tokenizer.next()) {
+                table.add(tokenizer.buffer, tokenizer.start, tokenizer.length);
+                tokens++;
+            }
+        } finally {
+            tokenizer.close();
+        }
+
+        // The most frequent tokens seen more than once become the vocabulary
+        int[] vocabulary = vocabulary(table);
+        int[] symbolOf = new int[table.size()];
+        long[] wordOcc = new long[vocabulary.length + 1];
+        for (int i = 0; i < vocabulary.length; i++) {
+            symbolOf[vocabulary[i]] = i + 1;
+            wordOcc[i + 1] = table.count(vocabulary[i]);
+        }
+        long[] spellingOcc = new long[END + 1];
+        for (int id = 0; id < table.size(); id++) {
+            // Vocabulary words are spelled once in the header, and escaped
+            // tokens every time they occur
+            long times = symbolOf[id] == ESCAPE ? table.count(id) : 1;
+            if (symbolOf[id] == ESCAPE)
+                wordOcc[ESCAPE] += times;
+            for (int i = 0; i < table.length(id); i++)
+                spellingOcc[table.pool[table.offset(id) + i] & 0xFF] += times;
+            spellingOcc[END] += times;
+        }
+        Codebook words = HuffmanCoding.makeCodebook(wordOcc);
+        Codebook spelling = HuffmanCoding.makeCodebook(spellingOcc);
+
+        BitOutputStream out = new BitOutputStream(new FileOutputStream(encodedFile));
+        tokenizer = null;
+        try {
+            out.writeBits(MAGIC, 32);
+            out.writeBits(VERSION, 8);
+            HuffmanHeader.writeVarint(out, Files.size(Paths.get(textFile)));
+            HuffmanHeader.writeVarint(out, tokens);
+            HuffmanHeader.writeLengths(out, spelling);
+            HuffmanHeader.writeVarint(out, vocabulary.length);
+            for (int id : vocabulary)
+                spell(out, spelling, table.pool, table.offset(id), table.length(id));
+            HuffmanHeader.writeLengths(out, words);
+
+            // Second pass: write each token's code
+            tokenizer = new Tokenizer(new FileInputStream(textFile));
+            long written = 0;
+            while (tokenizer.next()) {
+                int id = table.find(tokenizer.buffer, tokenizer.start, tokenizer.length);
+                // A token the first pass never saw has no symbol
+                if (id < 0)
+                    throw new IOException(textFile + " changed while it was being encoded");
+                int symbol = symbolOf[id];
+                words.encodeSymbol(out, symbol);
+                if (symbol == ESCAPE)
+                    spell(out, spelling, tokenizer.buffer, tokenizer.start, tokenizer.length);
+                written++;
+            }
+            if (written != tokens)
+                throw new IOException(textFile + " changed while it was being encoded");
+        } finally {
+            if (tokenizer != null)
+                tokenizer.close();
+            out.close();
+        }
+        return tokens;
+    }
+
+    /**
+     * Picks the tokens which get a code of their own
+     *
+     * @return Their IDs in the table, most frequent first
+     */
+    private static int[] vocabulary(WordTable table) {
+        // Sort by count, highest first, with the ID to break ties so the
+        // order never depends on the sort
+        long[] keys = new long[table.size()];
+        int n = 0;
+        for (int id = 0; id < table.size(); id++) {
+            if (table.count(id) > 1)
+                keys[n++] = -table.count(id) << 32 | id;
+        }
+        Arrays.sort(keys, 0, n);
+        int[] vocabulary = new int[Math.min(n, MAX_WORDS)];
+        for (int i = 0; i < vocabulary.length; i++)
+            vocabulary[i] = (int) keys[i];
+        return vocabulary;
+    }
+
+    private static void spell(BitOutputStream out, Codebook spelling, byte[] bytes, int off, int len)
+            throws IOException {
+        spelling.encode(out, bytes, off, len);
+        spelling.encodeSymbol(out, END);
+    }
+
+    /**
+     * Decodes a file written by encode
+     *
+     * @param encodedFile The file to decode
+     * @param decodedFile The file which you want to decode into
+     * @return The number of tokens
+     */
+    public static long decode(String encodedFile, String decodedFile) throws IOException {
+        BitInputStream in = new BitInputStream(new FileInputStream(encodedFile), 1 << 16);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(decodedFile), 1 << 16);
+        try {
+            if (in.readBits(32) != MAGIC)
+                throw new IOException("Not a word huffman file");
+            int version = (int) in.readBits(8);
+            if (version != VERSION)
+                throw new IOException("Unsupported word huffman file version " + version);
+            long length = HuffmanHeader.readVarint(in);
+            long tokens = HuffmanHeader.readVarint(in);
+            if (tokens == 0) {
+                if (length != 0)
+                    throw new IOException("Corrupt word huffman file, no tokens for " + length + " bytes");
+                return 0;
+            }
+            Codebook spelling = HuffmanHeader.readLengths(in);
+            if (spelling.size() > END + 1)
+                throw new IOException("Corrupt word huffman file, bad spelling codes");
+            TableDecoder spellingDecoder = spelling.size() > 0 ? spelling.getDecoder() : null;
+
+            // Lay the vocabulary out end to end, so a decoded word is one copy
+            long vocabularySize = HuffmanHeader.readVarint(in);
+            if (vocabularySize > MAX_WORDS)
+                throw new IOException("Corrupt word huffman file, " + vocabularySize + " words");
+            int[] offsets = new int[(int) vocabularySize + 2];
+            byte[] pool = new byte[1 << 12];
+            int used = 0;
+            for (int w = 1; w <= vocabularySize; w++) {
+                offsets[w] = used;
+                if (pool.length - used < MAX_TOKEN_LENGTH)
+                    pool = Arrays.copyOf(pool, pool.length * 2);
+                used += unspell(in, spellingDecoder, pool, used);
+            }
+            offsets[(int) vocabularySize + 1] = used;
+
+            Codebook words = HuffmanHeader.readLengths(in);
+            if (words.size() == 0 || words.size() > vocabularySize + 2)
+                throw new IOException("Corrupt word huffman file, bad word codes");
+            TableDecoder wordDecoder = words.getDecoder();
+
+            byte[] token = new byte[MAX_TOKEN_LENGTH];
+            long written = 0;
+            for (long t = 0; t < tokens; t++) {
+                if (!in.hasMoreBits())
+                    throw new IOException("Corrupt word huffman file, it ends after " + t + " of " + tokens + " tokens");
+                int symbol = wordDecoder.decodeSymbol(in);
+                if (symbol == ESCAPE) {
+                    int n = unspell(in, spellingDecoder, token, 0);
+                    out.write(token, 0, n);
+                    written += n;
+                } else if (symbol <= vocabularySize) {
+                    out.write(pool, offsets[symbol], offsets[symbol + 1] - offsets[symbol]);
+                    written += offsets[symbol + 1] - offsets[symbol];
+                } else {
+                    throw new IOException("Corrupt word huffman file, bad word " + symbol);
+                }
+            }
+            if (written != length)
+                throw new IOException("Corrupt word huffman file, decoded " + written + " of " + length + " bytes");
+            return tokens;
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Reads one spelled-out token
+     *
+     * @return The number of bytes it had
+     */
+    private static int unspell(BitInputStream in, TableDecoder spelling, byte[] dst, int off) throws IOException {
+        if (spelling == null)
+            throw new IOException("Corrupt word huffman file, a token is spelled with no spelling codes");
+        for (int n = 0; n <= MAX_TOKEN_LENGTH; n++) {
+            int symbol = spelling.decodeSymbol(in);
+            if (symbol == END)
+                return n;
+            if (n == MAX_TOKEN_LENGTH)
+                break;
+            dst[off + n] = (byte) symbol;
+        }
+        throw new IOException("Corrupt word huffman file, a spelled token is too long");
+    }
+
+    /**
+     * This class cuts a stream of bytes into tokens. Each token is a run of
+     * word bytes or a run of other bytes, at most MAX_TOKEN_LENGTH long.
+     * After next returns true, the token is in buffer from start to start +
+     * length, until next is called again.
+     */
+    static class Tokenizer {
+        private final InputStream in;
+        byte[] buffer = new byte[1 << 16];
+        int start, length;
+        private int position, limit;
+        private boolean eof;
+
+        Tokenizer(InputStream in) {
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            if (position == limit && !fill())
+                return false;
+            start = position;
+            boolean word = isWordByte(buffer[position]);
+            int p = position + 1;
+            while (p - start < MAX_TOKEN_LENGTH) {
+                if (p == limit) {
+                    // Move the token to the front so the rest of it can be read
+                    System.arraycopy(buffer, start, buffer, 0, p - start);
+                    p -= start;
+                    limit = p;
+                    position = 0;
+                    start = 0;
+                    if (!fill())
+                        break;
+                }
+                if (isWordByte(buffer[p]) != word)
+                    break;
+                p++;
+            }
+            length = p - start;
+            position = p;
+            return true;
+        }
+
+        // Reads more bytes after limit, returning false at the end of input
+        private boolean fill() throws IOException {
+            if (eof)
+                return false;
+            if (position == limit) {
+                position = 0;
+                limit = 0;
+            }
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+                return false;
+            }
+            limit += n;
+            return true;
+        }
+
+        private static boolean isWordByte(byte b) {
+            return b < 0 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9');
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * This class maps byte strings to IDs with open addressing, keeping every
+     * string's bytes in one pool and everything else in int and long arrays,
+     * so no object is made per word. IDs are given out from 0 in the order
+     * strings are first added.
+     */
+    static class WordTable {
+        byte[] pool = new byte[1 << 16];
+        private int poolUsed;
+        private int[] offsets, lengths, hashes;
+        private long[] counts;
+        private int size;
+
+        // Slot i holds an ID + 1, or 0 if the slot is empty
+        private int[] slots;
+
+        WordTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(expected, 16) * 2 - 1) * 2;
+            slots = new int[capacity];
+            offsets = new int[capacity / 2];
+            lengths = new int[capacity / 2];
+            hashes = new int[capacity / 2];
+            counts = new long[capacity / 2];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int offset(int id) {
+            return offsets[id];
+        }
+
+        int length(int id) {
+            return lengths[id];
+        }
+
+        long count(int id) {
+            return counts[id];
+        }
+
+        /**
+         * Counts one more occurrence of a string, adding it if it is new
+         *
+         * @return The string's ID
+         */
+        int add(byte[] bytes, int off, int len) {
+            int hash = hash(bytes, off, len);
+            int mask = slots.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                int slot = slots[i];
+                if (slot == 0) {
+                    int id = insert(bytes, off, len, hash);
+                    slots[i] = id + 1;
+                    if (size * 2 > slots.length)
+                        grow();
+                    counts[id]++;
+                    return id;
+                }
+                if (matches(slot - 1, bytes, off, len, hash)) {
+                    counts[slot - 1]++;
+                    return slot - 1;
+                }
+            }
+        }
+
+        /**
+         * @return The ID of a string, or -1 if it was never added
+         */
+        int find(byte[] bytes, int off, int len) {
+            int hash = hash(bytes, off, len);
+            int mask = slots.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                int slot = slots[i];
+                if (slot == 0)
+                    return -1;
+                if (matches(slot - 1, bytes, off, len, hash))
+                    return slot - 1;
+            }
+        }
+
+        private boolean matches(int id, byte[] bytes, int off, int len, int hash) {
+            return hashes[id] == hash && lengths[id] == len
+                    && Arrays.equals(pool, offsets[id], offsets[id] + len, bytes, off, off + len);
+        }
+
+        private int insert(byte[] bytes, int off, int len, int hash) {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, size * 2);
+                lengths = Arrays.copyOf(lengths, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            if (pool.length - poolUsed < len)
+                pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolUsed + len));
+            System.arraycopy(bytes, off, pool, poolUsed, len);
+            offsets[size] = poolUsed;
+            lengths[size] = len;
+            hashes[size] = hash;
+            poolUsed += len;
+            return size++;
+        }
+
+        // Doubles the slots, placing every ID again by its saved hash
+        private void grow() {
+            int[] slots = new int[this.slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id++) {
+                int i = hashes[id] & mask;
+                while (slots[i] != 0)
+                    i = (i + 1) & mask;
+                slots[i] = id + 1;
+            }
+            this.slots = slots;
+        }
+
+        private static int hash(byte[] bytes, int off, int len) {
+            int h = len;
+            for (int i = off, end = off + len; i < end; i++)
+                h = 31 * h + bytes[i];
+            // Spread the bits so that similar words land far apart
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}